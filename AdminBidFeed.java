@@ -0,0 +1,284 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Server-sent event feed of the accepted and rejected bids of each stock for the admin consoles, served by the
+ * AdminBidFeedController. Stock ids are only unique within a tenant, so feeds are kept per tenant and a console is only
+ * subscribed to the feeds of its own tenant.
+ *
+ * Every stock keeps its last bufferSize events in a ring buffer, each with an offset that grows by one per event.
+ * A console subscribes with the offset of the last event it has seen (the SSE Last-Event-ID), gets the buffered events
+ * after it and then the live ones. Events are sent in frames: every frameIntervalMs each subscriber gets one "bids" frame
+ * with the events it has not seen yet, at most maxEventsPerFrame, so a hot lot costs one write per subscriber per frame
+ * whatever its bid rate. A subscriber that fell behind the buffer is told how many events it missed.
+ *
+ * The frames are written by a pool of sender threads, one write in flight per subscriber, so a console on a slow
+ * connection only holds a sender and never the framer: its frames are skipped while its write is in flight (it catches up
+ * from the buffer afterwards) and it is dropped once a write has been in flight for sendTimeoutMs.
+ */
+@Slf4j
+@Component
+public class AdminBidFeed {
+
+    public static final String ACCEPTED = "accepted";
+    public static final String REJECTED = "rejected";
+
+    @Value("${bid.admin-feed.buffer-size:256}")
+    private int bufferSize;
+
+    @Value("${bid.admin-feed.frame-interval-ms:100}")
+    private long frameIntervalMs;
+
+    @Value("${bid.admin-feed.max-events-per-frame:500}")
+    private int maxEventsPerFrame;
+
+    @Value("${bid.admin-feed.emitter-timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    @Value("${bid.admin-feed.sender-threads:4}")
+    private int senderThreads;
+
+    @Value("${bid.admin-feed.send-timeout-ms:10000}")
+    private long sendTimeoutMs;
+
+    private final ConcurrentHashMap<String, Map<Long, StockFeed>> feeds = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService framer;
+    private ExecutorService senders;
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory senderThreadFactory = new CustomizableThreadFactory("admin-bid-feed-sender-");
+        senderThreadFactory.setDaemon(true);
+        senders = Executors.newFixedThreadPool(senderThreads, senderThreadFactory);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("admin-bid-feed-");
+        threadFactory.setDaemon(true);
+        framer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        framer.scheduleWithFixedDelay(this::sendFrames, frameIntervalMs, frameIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        framer.shutdown();
+        framer.awaitTermination(5, TimeUnit.SECONDS);
+        senders.shutdownNow();
+        feeds.values().forEach(tenantFeeds -> tenantFeeds.values().forEach(StockFeed::close));
+    }
+
+    /*
+     * This method appends a bid to the feed of its stock
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock bid on
+     * @param type - ACCEPTED or REJECTED
+     * @param bid - the bid data sent to the consoles
+     */
+    public void publish(String tenantId, Long stockId, String type, Map<String, Object> bid) {
+        feed(tenantId, stockId).append(type, bid);
+    }
+
+    /*
+     * This method subscribes an admin console to the feed of a stock of its tenant
+     * @param tenantId - the tenant of the console, taken from the console's request
+     * @param stockId - the stock to follow
+     * @param lastOffset - the offset of the last event the console has seen, null to start with the buffered events
+     * @return SseEmitter - the emitter to return from the controller
+     */
+    public SseEmitter subscribe(String tenantId, Long stockId, Long lastOffset) {
+        if (tenantId == null) {
+            throw new IllegalArgumentException("Admin bid feed of stock " + stockId + " requested without a tenant");
+        }
+        StockFeed feed = feed(tenantId, stockId);
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        // an offset past the end of the feed was handed out before a restart, the console resumes with the next event
+        Subscriber subscriber = new Subscriber(emitter, lastOffset == null ? -1 : Math.min(lastOffset, feed.lastOffset()));
+        emitter.onCompletion(() -> feed.subscribers.remove(subscriber));
+        emitter.onTimeout(() -> feed.subscribers.remove(subscriber));
+        emitter.onError(error -> feed.subscribers.remove(subscriber));
+        feed.subscribers.add(subscriber);
+        return emitter;
+    }
+
+    /*
+     * This method drops the feed of a stock whose auction is closed, its subscribers are completed
+     */
+    public void evict(String tenantId, Long stockId) {
+        Map<Long, StockFeed> tenantFeeds = feeds.get(tenantId);
+        StockFeed feed = tenantFeeds == null ? null : tenantFeeds.remove(stockId);
+        if (feed != null) {
+            feed.close();
+        }
+    }
+
+    void sendFrames() {
+        long now = System.currentTimeMillis();
+        feeds.forEach((tenantId, tenantFeeds) -> tenantFeeds.forEach((stockId, feed) -> {
+            for (Subscriber subscriber : feed.subscribers) {
+                long sendingSince = subscriber.sendingSince.get();
+                if (sendingSince != 0) {
+                    if (now - sendingSince > sendTimeoutMs) {
+                        drop(feed, subscriber, tenantId, stockId, new IOException("frame not written within " + sendTimeoutMs + " ms"));
+                    }
+                    continue;
+                }
+                if (!feed.hasEventsAfter(subscriber.sentOffset)) {
+                    continue;
+                }
+                subscriber.sendingSince.set(now);
+                senders.execute(() -> {
+                    try {
+                        send(feed, subscriber);
+                    } catch (Exception e) {
+                        drop(feed, subscriber, tenantId, stockId, e);
+                    } finally {
+                        subscriber.sendingSince.set(0);
+                    }
+                });
+            }
+        }));
+    }
+
+    private void drop(StockFeed feed, Subscriber subscriber, String tenantId, Long stockId, Exception cause) {
+        if (feed.subscribers.remove(subscriber)) {
+            log.debug("Admin bid feed subscriber of stock {} of tenant {} dropped: {}", stockId, tenantId, cause.getMessage());
+            subscriber.emitter.completeWithError(cause);
+        }
+    }
+
+    private StockFeed feed(String tenantId, Long stockId) {
+        return feeds.computeIfAbsent(tenantId, id -> new ConcurrentHashMap<>()).computeIfAbsent(stockId, id -> new StockFeed(bufferSize));
+    }
+
+    private void send(StockFeed feed, Subscriber subscriber) throws IOException {
+        Frame frame = feed.since(subscriber.sentOffset, maxEventsPerFrame);
+        if (frame == null) {
+            return;
+        }
+        Map<String, Object> data = new HashMap<>(4);
+        data.put("events", frame.events);
+        data.put("missed", frame.missed);
+        subscriber.emitter.send(SseEmitter.event()
+                .id(Long.toString(frame.lastOffset))
+                .name("bids")
+                .data(data, MediaType.APPLICATION_JSON));
+        subscriber.sentOffset = frame.lastOffset;
+    }
+
+    private static final class StockFeed {
+
+        private final Event[] ring;
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        // offset the next event gets, the buffer holds the offsets [nextOffset - ring.length, nextOffset)
+        private long nextOffset;
+
+        private StockFeed(int bufferSize) {
+            this.ring = new Event[bufferSize];
+        }
+
+        synchronized void append(String type, Map<String, Object> bid) {
+            ring[(int) (nextOffset % ring.length)] = new Event(nextOffset, type, bid);
+            nextOffset++;
+        }
+
+        synchronized long lastOffset() {
+            return nextOffset - 1;
+        }
+
+        synchronized boolean hasEventsAfter(long sentOffset) {
+            return sentOffset < nextOffset - 1;
+        }
+
+        /*
+         * @return Frame - the events after the given offset, null if there are none
+         */
+        synchronized Frame since(long sentOffset, int maxEvents) {
+            if (sentOffset >= nextOffset - 1) {
+                return null;
+            }
+            long oldest = Math.max(0, nextOffset - ring.length);
+            long from = Math.max(sentOffset + 1, oldest);
+            long to = Math.min(nextOffset, from + maxEvents);
+            List<Map<String, Object>> events = new ArrayList<>((int) (to - from));
+            for (long offset = from; offset < to; offset++) {
+                events.add(ring[(int) (offset % ring.length)].toMap());
+            }
+            return new Frame(events, from - (sentOffset + 1), to - 1);
+        }
+
+        void close() {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.emitter.complete();
+            }
+            subscribers.clear();
+        }
+    }
+
+    private static final class Event {
+
+        private final long offset;
+        private final String type;
+        private final Map<String, Object> bid;
+
+        private Event(long offset, String type, Map<String, Object> bid) {
+            this.offset = offset;
+            this.type = type;
+            this.bid = bid;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> event = new HashMap<>(4);
+            event.put("offset", offset);
+            event.put("type", type);
+            event.put("bid", Collections.unmodifiableMap(bid));
+            return event;
+        }
+    }
+
+    private static final class Frame {
+
+        private final List<Map<String, Object>> events;
+        private final long missed;
+        private final long lastOffset;
+
+        private Frame(List<Map<String, Object>> events, long missed, long lastOffset) {
+            this.events = events;
+            this.missed = missed;
+            this.lastOffset = lastOffset;
+        }
+    }
+
+    private static final class Subscriber {
+
+        private final SseEmitter emitter;
+        // written by the sender of the subscriber's frame, one at a time
+        private volatile long sentOffset;
+        // when the write in flight started, 0 when no write is in flight
+        private final AtomicLong sendingSince = new AtomicLong();
+
+        private Subscriber(SseEmitter emitter, long sentOffset) {
+            this.emitter = emitter;
+            this.sentOffset = sentOffset;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cone.customer.api.auctionservice.model.AdminBidQueueData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Sends AdminBidQueueData to the tenant's admin bid FIFO queue.
+ * One AmazonSQS client (and its connection pool) is shared by the bean and only built when the first message is sent.
+ * Messages are coalesced per queue and sent with SendMessageBatch, at most 10 per request (the SQS limit),
+ * either as soon as 10 are pending or every flushIntervalMs.
+ * A batch that cannot be sent (SQS unreachable, throttled) and the entries SQS failed for a reason other than the
+ * sender's fault are put back at the head of their queue and retried with the next flush, in their original order.
+ * Each queue holds at most capacity pending bids, a bid queued while its queue is full is dropped and logged so an SQS
+ * outage cannot grow the heap without bound.
+ * Used when bid.admin-feed.sqs.enabled is set, which then requires aws.region. Set sqs.endpoint to point the client at
+ * a local SQS stand-in such as ElasticMQ.
+ */
+@Slf4j
+@Component
+public class AdminBidQueueSender {
+
+    private static final int MAX_BATCH_ENTRIES = 10;
+    private static final String MESSAGE_GROUP_ID = "bids-for-admin";
+
+    @Value("${env}")
+    private String env;
+
+    @Value("${sqs.url}")
+    private String sqsURL;
+
+    @Value("${sqs.endpoint:}")
+    private String sqsEndpoint;
+
+    @Value("${aws.region:}")
+    private String awsRegion;
+
+    @Value("${bid.admin-feed.sqs.enabled:false}")
+    private boolean enabled;
+
+    @Value("${sqs.admin-bids.capacity:10000}")
+    private int capacity;
+
+    @Value("${aws.accessKey}")
+    private String awsAccessKey;
+
+    @Value("${aws.secretKey}")
+    private String awsSecretKey;
+
+    @Value("${sqs.admin-bids.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, PendingBids> pendingByQueue = new ConcurrentHashMap<>();
+
+    private volatile AmazonSQS amazonSQS;
+
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void start() {
+        if (enabled && awsRegion.isEmpty()) {
+            throw new IllegalStateException("aws.region must be set when bid.admin-feed.sqs is enabled");
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("admin-bid-sqs-");
+        threadFactory.setDaemon(true);
+        flusher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        flusher.scheduleWithFixedDelay(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        flushAll();
+        if (amazonSQS != null) {
+            amazonSQS.shutdown();
+        }
+    }
+
+    /*
+     * This method queues the admin bid for the FIFO queue of the given tenant
+     * @param tenantId - the tenant of the bid
+     * @param adminBidQueueData - the bid data for the admin firebase node
+     */
+    public void enqueue(String tenantId, AdminBidQueueData adminBidQueueData) {
+        String queueURL = queueURL(tenantId);
+        PendingBids pending = pendingByQueue.computeIfAbsent(queueURL, url -> new PendingBids());
+        if (pending.size.incrementAndGet() > capacity) {
+            pending.size.decrementAndGet();
+            log.error("Admin bid queue " + queueURL + " is full with " + capacity + " pending bids, bid of stock "
+                    + adminBidQueueData.getStockId() + " dropped");
+            return;
+        }
+        pending.bids.add(adminBidQueueData);
+        if (pending.size.get() >= MAX_BATCH_ENTRIES) {
+            flush(queueURL, pending);
+        }
+    }
+
+    String queueURL(String tenantId) {
+        return sqsURL + tenantId + "_" + env + "_rejected.fifo";
+    }
+
+    private void flushAll() {
+        try {
+            pendingByQueue.forEach(this::flush);
+        } catch (Exception e) {
+            log.error("Sending admin bids to SQS failed with error: " + e.getMessage());
+        }
+    }
+
+    /*
+     * This method sends everything pending for one queue in batches of 10.
+     * It is synchronized on the pending queue so batches of a FIFO queue are never sent out of order
+     */
+    private void flush(String queueURL, PendingBids pending) {
+        synchronized (pending) {
+            while (!pending.bids.isEmpty()) {
+                // the entry ids are the indexes into polled
+                List<AdminBidQueueData> polled = new ArrayList<>(MAX_BATCH_ENTRIES);
+                List<SendMessageBatchRequestEntry> entries = new ArrayList<>(MAX_BATCH_ENTRIES);
+                AdminBidQueueData adminBidQueueData;
+                while (entries.size() < MAX_BATCH_ENTRIES && (adminBidQueueData = pending.bids.poll()) != null) {
+                    pending.size.decrementAndGet();
+                    try {
+                        entries.add(new SendMessageBatchRequestEntry()
+                                .withId(String.valueOf(polled.size()))
+                                .withMessageBody(objectMapper.writeValueAsString(adminBidQueueData))
+                                .withMessageGroupId(MESSAGE_GROUP_ID));
+                        polled.add(adminBidQueueData);
+                    } catch (JsonProcessingException e) {
+                        log.error("Admin bid of stock " + adminBidQueueData.getStockId() + " could not be serialized: " + e.getMessage());
+                    }
+                }
+                if (entries.isEmpty()) {
+                    return;
+                }
+                SendMessageBatchResult result;
+                try {
+                    result = client().sendMessageBatch(new SendMessageBatchRequest(queueURL, entries));
+                } catch (Exception e) {
+                    log.error("Sending " + entries.size() + " admin bids to " + queueURL + " failed, they are retried with the next flush: " + e.getMessage());
+                    requeue(pending, polled);
+                    return;
+                }
+                // SQS reports the failed entries in no particular order, they are retried in the order they were queued
+                List<BatchResultErrorEntry> failedEntries = new ArrayList<>(result.getFailed());
+                failedEntries.sort(Comparator.comparingInt(failed -> Integer.parseInt(failed.getId())));
+                List<AdminBidQueueData> retried = new ArrayList<>();
+                for (BatchResultErrorEntry failed : failedEntries) {
+                    if (Boolean.TRUE.equals(failed.getSenderFault())) {
+                        // the message itself is invalid, sending it again fails the same way
+                        log.error("Admin bid was rejected by " + queueURL + ": " + failed.getCode() + " " + failed.getMessage());
+                    } else {
+                        retried.add(polled.get(Integer.parseInt(failed.getId())));
+                    }
+                }
+                if (!retried.isEmpty()) {
+                    log.warn("{} admin bids were not accepted by {}, they are retried with the next flush", retried.size(), queueURL);
+                    requeue(pending, retried);
+                    return;
+                }
+                log.debug("Sent {} admin bids to {}", entries.size(), queueURL);
+            }
+        }
+    }
+
+    /*
+     * This method puts bids that were polled but not sent back at the head of their queue, keeping their order
+     */
+    private static void requeue(PendingBids pending, List<AdminBidQueueData> bids) {
+        for (int i = bids.size() - 1; i >= 0; i--) {
+            pending.bids.addFirst(bids.get(i));
+            pending.size.incrementAndGet();
+        }
+    }
+
+    private AmazonSQS client() {
+        AmazonSQS client = amazonSQS;
+        if (client == null) {
+            synchronized (this) {
+                client = amazonSQS;
+                if (client == null) {
+                    AmazonSQSClientBuilder builder = AmazonSQSClientBuilder.standard()
+                            .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(awsAccessKey, awsSecretKey)));
+                    if (!sqsEndpoint.isEmpty()) {
+                        builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(sqsEndpoint, awsRegion));
+                    } else {
+                        builder.withRegion(awsRegion);
+                    }
+                    client = builder.build();
+                    amazonSQS = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /*
+     * The bids pending for one queue. The deque's size is O(n), so the count is kept next to it
+     */
+    private static final class PendingBids {
+
+        private final Deque<AdminBidQueueData> bids = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+    }
+}
@@ -0,0 +1,249 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.repository.StockRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * In-memory auction state per stock of each tenant, read by every bid instead of querying the stock status and the
+ * auction status log. A stock's state is loaded from StockRepository on its first bid. The admin start/stop/close
+ * actions write the stock through StockRepository, on which the BidCacheInvalidator publishes an
+ * AuctionStatusChangedEvent that applies the change right away. As a fallback for status writes made outside this
+ * service, a state is re-read once it is older than ttlMs, and the sweeper re-reads the running lots that get no bids,
+ * so a closed lot is evicted whether or not it is bid on again.
+ */
+@Slf4j
+@Component
+public class AuctionStateCache {
+
+    public enum AuctionState {
+        STARTED, STOPPED, NOT_RUNNING;
+
+        static AuctionState of(String stockStatus) {
+            if ("AuctionStarted".equalsIgnoreCase(stockStatus)) {
+                return STARTED;
+            } else if ("AuctionStopped".equalsIgnoreCase(stockStatus)) {
+                return STOPPED;
+            }
+            return NOT_RUNNING;
+        }
+
+        /*
+         * true if bids are accepted, i.e. the auction is started or stopped (final call)
+         */
+        public boolean isRunning() {
+            return this != NOT_RUNNING;
+        }
+    }
+
+    @Autowired
+    StockRepository stockRepository;
+
+    @Autowired
+    LiveOrderBook liveOrderBook;
+
+    @Autowired
+    MarginReservationEngine marginReservationEngine;
+
+    @Autowired
+    BidDeduplicator bidDeduplicator;
+
+    @Autowired
+    AutoBidEngine autoBidEngine;
+
+    @Autowired
+    BidRouter bidRouter;
+
+    @Autowired
+    BidAdmissionController bidAdmissionController;
+
+    @Autowired
+    AdminBidFeed adminBidFeed;
+
+    @Autowired
+    UpdateBidsToFirebaseForAdmin updateBidsToFirebaseForAdmin;
+
+    @Autowired
+    BuyerProfileCache buyerProfileCache;
+
+    @Value("${bid.auction-state.ttl-ms:2000}")
+    private long ttlMs;
+
+    @Value("${bid.auction-state.sweep-interval-ms:30000}")
+    private long sweepIntervalMs;
+
+    private final ConcurrentHashMap<String, Map<Long, Entry>> states = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService sweeper;
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("auction-state-sweep-");
+        threadFactory.setDaemon(true);
+        sweeper = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        sweeper.shutdown();
+        sweeper.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /*
+     * This method returns the auction state of the given stock
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @return AuctionState - the current auction state
+     */
+    public AuctionState get(String tenantId, Long stockId) {
+        Entry entry = states(tenantId).get(stockId);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt <= ttlMs) {
+            return entry.state;
+        }
+        return reload(tenantId, stockId);
+    }
+
+    /*
+     * This method returns the seller of the given stock if its auction is known to be running, without reading the database.
+     * The state has to be younger than ttlMs and the seller has to have been recorded by a validated bid
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @return Long - the seller of the running stock, null if the stock is not known to be running
+     */
+    public Long runningSeller(String tenantId, Long stockId) {
+        Entry entry = states(tenantId).get(stockId);
+        if (entry == null || !entry.state.isRunning() || System.currentTimeMillis() - entry.loadedAt > ttlMs) {
+            return null;
+        }
+        return entry.sellerId;
+    }
+
+    /*
+     * This method records the seller of a stock whose state is held, so runningSeller can answer without the stock row
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @param sellerId - the customer id of the stock's seller
+     */
+    public void recordSeller(String tenantId, Long stockId, Long sellerId) {
+        Entry entry = states(tenantId).get(stockId);
+        if (entry != null) {
+            entry.sellerId = sellerId;
+        }
+    }
+
+    /*
+     * true if the state of the given stock is held, i.e. it has been bid on or its status was applied
+     */
+    boolean holds(String tenantId, Long stockId) {
+        return states(tenantId).containsKey(stockId);
+    }
+
+    /*
+     * This method re-reads the status of the given stock from the database and applies it
+     * @return AuctionState - the current auction state
+     */
+    private AuctionState reload(String tenantId, Long stockId) {
+        return update(tenantId, stockId, TenantScope.call(tenantId, () -> stockRepository.findStockStatusById(stockId)));
+    }
+
+    /*
+     * This method applies a status change of a stock.
+     * Starting an auction loads the stock's highest bid into the order book and warms the tenant's buyer profiles, closing it flushes and drops the
+     * stock's order book entry, bid tokens, proxies and admin feed and settles the holder's margin reservation
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @param stockStatus - the new status name
+     * @return AuctionState - the new auction state
+     */
+    public AuctionState update(String tenantId, Long stockId, String stockStatus) {
+        AuctionState state = AuctionState.of(stockStatus);
+        Entry entry = new Entry(state, System.currentTimeMillis());
+        Entry replaced = states(tenantId).put(stockId, entry);
+        AuctionState previous = replaced == null ? null : replaced.state;
+        if (replaced != null) {
+            entry.sellerId = replaced.sellerId;
+        }
+        if (previous == state) {
+            return state;
+        }
+        log.debug("Auction state of stock {} of tenant {} changed from {} to {}", stockId, tenantId, previous, state);
+        if (state == AuctionState.STARTED) {
+            liveOrderBook.get(tenantId, stockId);
+            buyerProfileCache.warm(tenantId);
+        } else if (state == AuctionState.NOT_RUNNING && previous != null && previous.isRunning()) {
+            liveOrderBook.evict(tenantId, stockId);
+            marginReservationEngine.settle(tenantId, stockId);
+            bidDeduplicator.evict(tenantId, stockId);
+            autoBidEngine.evict(tenantId, stockId);
+            bidRouter.forget(tenantId, stockId);
+            bidAdmissionController.evict(tenantId, stockId);
+            adminBidFeed.evict(tenantId, stockId);
+            updateBidsToFirebaseForAdmin.evict(tenantId, stockId);
+        }
+        return state;
+    }
+
+    /*
+     * This method re-reads the running lots whose state is older than ttlMs, so the lots closed without a bid since are evicted
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        states.forEach((tenantId, tenantStates) -> tenantStates.forEach((stockId, entry) -> {
+            if (entry.state.isRunning() && now - entry.loadedAt > ttlMs) {
+                try {
+                    reload(tenantId, stockId);
+                } catch (Exception e) {
+                    log.error("Re-reading the auction state of stock " + stockId + " of tenant " + tenantId + " failed with error: " + e.getMessage());
+                }
+            }
+        }));
+    }
+
+    /*
+     * This method returns the stocks whose auction is running per tenant, used by the AuctionStateSnapshotter
+     */
+    Map<String, Map<Long, AuctionState>> runningStates() {
+        Map<String, Map<Long, AuctionState>> running = new HashMap<>();
+        states.forEach((tenantId, tenantStates) -> tenantStates.forEach((stockId, entry) -> {
+            if (entry.state.isRunning()) {
+                running.computeIfAbsent(tenantId, id -> new HashMap<>()).put(stockId, entry.state);
+            }
+        }));
+        return running;
+    }
+
+    @EventListener
+    public void onAuctionStatusChanged(AuctionStatusChangedEvent event) {
+        update(event.getTenantId(), event.getStockId(), event.getStockStatus());
+    }
+
+    private Map<Long, Entry> states(String tenantId) {
+        return states.computeIfAbsent(tenantId, id -> new ConcurrentHashMap<>());
+    }
+
+    private static final class Entry {
+
+        private final AuctionState state;
+        private final long loadedAt;
+        private volatile Long sellerId;
+
+        private Entry(AuctionState state, long loadedAt) {
+            this.state = state;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.entity.Bid;
+import cone.customer.api.auctionservice.repository.HighestBidRepository;
+import cone.customer.utils.shared.Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/*
+ * Periodic binary snapshot of the live auction state held in memory, enabled with bid.snapshot.enabled, so a restarted
+ * node serves bids within seconds instead of reloading every live stock, buyer and reservation from the database.
+ *
+ * Every intervalMs the highest bid, auction state, held margin reservation and stock item quantity of every live stock
+ * (read in the stock's lane, so no bid is half applied) and the buyer exposures are written to a temporary file that then
+ * replaces the previous snapshot. The snapshot's high-water mark is the time it was started.
+ *
+ * On start, before the web server takes requests, the snapshot is restored: the auction state of every snapshotted stock
+ * is re-read so a lot closed while the node was down is dropped, and the accepted bids recorded since the high-water mark
+ * are replayed from the bid table on top of the restored highest bids. A missing, stale or corrupt snapshot leaves the
+ * state to be loaded on demand, as on a cold start.
+ *
+ * Stocks are kept per tenant, the auction state and the bids of a tenant are read from its database (TenantScope).
+ *
+ * File layout: int magic, int version, long high-water mark, int stock count, the stocks (each starting with its tenant
+ * id), int exposure count, the exposures (each starting with its tenant id), long CRC32 of everything before it.
+ * Nullable values are preceded by a presence flag.
+ */
+@Slf4j
+@Component
+public class AuctionStateSnapshotter {
+
+    private static final int MAGIC = 0x42534E50;
+    private static final int VERSION = 2;
+    private static final int CRC_BYTES = 8;
+    private static final String SNAPSHOT_FILE = "auction-state.snapshot";
+
+    @Autowired
+    LiveOrderBook liveOrderBook;
+
+    @Autowired
+    AuctionStateCache auctionStateCache;
+
+    @Autowired
+    MarginReservationEngine marginReservationEngine;
+
+    @Autowired
+    BuyerExposureLedger buyerExposureLedger;
+
+    @Autowired
+    BidSequencer bidSequencer;
+
+    @Autowired
+    BidRouter bidRouter;
+
+    @Autowired
+    HighestBidRepository highestBidRepository;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Value("${bid.snapshot.enabled:false}")
+    private boolean enabled;
+
+    @Value("${bid.snapshot.directory:bid-snapshot}")
+    private String directory;
+
+    @Value("${bid.snapshot.interval-ms:5000}")
+    private long intervalMs;
+
+    @Value("${bid.snapshot.max-age-ms:3600000}")
+    private long maxAgeMs;
+
+    // a bid is stamped a little after it enters the order book, the catch-up starts this much before the high-water mark
+    @Value("${bid.snapshot.catch-up-slack-ms:1000}")
+    private long catchUpSlackMs;
+
+    private Path directoryPath;
+    private ScheduledExecutorService writer;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (bidRouter.isEnabled()) {
+            // the snapshot does not record which node owned a stock, a restored stock may have moved to another node since
+            log.warn("Auction state snapshots are not supported in cluster mode and are disabled");
+            return;
+        }
+        directoryPath = Paths.get(directory);
+        Files.createDirectories(directoryPath);
+        restore();
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("auction-snapshot-");
+        threadFactory.setDaemon(true);
+        writer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        writer.scheduleWithFixedDelay(this::write, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        writer.awaitTermination(5, TimeUnit.SECONDS);
+        write();
+    }
+
+    /*
+     * This method writes the live state to a new snapshot that replaces the previous one
+     */
+    synchronized void write() {
+        long highWaterMark = System.currentTimeMillis();
+        Map<String, Set<Long>> stockIds = liveOrderBook.stockIds();
+        Map<String, Map<Long, AuctionStateCache.AuctionState>> states = auctionStateCache.runningStates();
+        states.forEach((tenantId, tenantStates) -> stockIds.computeIfAbsent(tenantId, id -> new HashSet<>()).addAll(tenantStates.keySet()));
+
+        List<StockRecord> stocks = new ArrayList<>();
+        stockIds.forEach((tenantId, tenantStockIds) -> {
+            Map<Long, AuctionStateCache.AuctionState> tenantStates = states.getOrDefault(tenantId, Collections.emptyMap());
+            for (Long stockId : tenantStockIds) {
+                try {
+                    stocks.add(bidSequencer.execute(tenantId, stockId, () -> capture(tenantId, stockId, tenantStates.get(stockId))));
+                } catch (Exception e) {
+                    // a busy lane leaves the stock out, it is loaded on demand after a restart
+                    log.debug("Stock {} of tenant {} left out of the auction state snapshot: {}", stockId, tenantId, e.getMessage());
+                }
+            }
+        });
+        List<ExposureRecord> exposures = new ArrayList<>();
+        buyerExposureLedger.exposures().forEach((tenantId, tenantExposures) -> tenantExposures.forEach((customerId, exposure) ->
+                exposures.add(new ExposureRecord(tenantId, customerId, exposure.getDay(), exposure.getTotal()))));
+
+        Path snapshot = directoryPath.resolve(SNAPSHOT_FILE);
+        Path temporary = directoryPath.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedOutputStream file = new BufferedOutputStream(Channels.newOutputStream(channel));
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(file, crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(highWaterMark);
+            out.writeInt(stocks.size());
+            for (StockRecord stock : stocks) {
+                stock.writeTo(out);
+            }
+            out.writeInt(exposures.size());
+            for (ExposureRecord exposure : exposures) {
+                out.writeUTF(exposure.tenantId);
+                out.writeLong(exposure.customerId);
+                out.writeLong(exposure.day);
+                out.writeLong(exposure.total);
+            }
+            out.flush();
+            // the checksum itself is written past the CheckedOutputStream
+            new DataOutputStream(file).writeLong(crc.getValue());
+            file.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            log.error("Writing the auction state snapshot failed with error: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Replacing the auction state snapshot failed with error: " + e.getMessage());
+            return;
+        }
+        log.debug("Auction state snapshot written with {} stocks and {} buyers in {} ms", stocks.size(), exposures.size(),
+                System.currentTimeMillis() - highWaterMark);
+    }
+
+    private StockRecord capture(String tenantId, Long stockId, AuctionStateCache.AuctionState state) {
+        StockRecord stock = new StockRecord(tenantId, stockId);
+        stock.state = state;
+        stock.highestBid = liveOrderBook.peek(tenantId, stockId);
+        stock.persisted = liveOrderBook.isPersisted(tenantId, stockId);
+        MarginReservationEngine.Reservation reservation = marginReservationEngine.heldReservation(tenantId, stockId);
+        if (reservation != null) {
+            stock.reservationCustomerId = reservation.getCustomerId();
+            stock.reservationCents = reservation.getCents();
+        }
+        stock.stockQuantity = marginReservationEngine.cachedStockQuantity(tenantId, stockId);
+        return stock;
+    }
+
+    /*
+     * This method loads the snapshot, catches it up with the bids accepted since it was written and installs it
+     */
+    private void restore() {
+        Path snapshot = directoryPath.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshot)) {
+            log.info("No auction state snapshot found, live state is loaded on demand");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Snapshot restored;
+        try {
+            restored = read(snapshot);
+        } catch (IOException e) {
+            log.error("Auction state snapshot " + snapshot + " is unreadable, live state is loaded on demand: " + e.getMessage());
+            return;
+        }
+        if (start - restored.highWaterMark > maxAgeMs) {
+            log.info("Auction state snapshot is older than " + maxAgeMs + " ms, live state is loaded on demand");
+            return;
+        }
+
+        Map<String, Map<Long, StockRecord>> stocks = new LinkedHashMap<>();
+        for (StockRecord stock : restored.stocks) {
+            // re-reads the auction state, the lots closed while this node was down are left out
+            if (stock.state != null && !auctionStateCache.get(stock.tenantId, stock.stockId).isRunning()) {
+                continue;
+            }
+            stocks.computeIfAbsent(stock.tenantId, id -> new LinkedHashMap<>()).put(stock.stockId, stock);
+        }
+
+        Map<String, Set<Long>> movedBuyers = new HashMap<>();
+        long highWaterMark = restored.highWaterMark;
+        int caughtUp = 0;
+        int restoredStocks = 0;
+        for (Map.Entry<String, Map<Long, StockRecord>> tenant : stocks.entrySet()) {
+            String tenantId = tenant.getKey();
+            Set<Long> tenantMovedBuyers = movedBuyers.computeIfAbsent(tenantId, id -> new HashSet<>());
+            caughtUp += TenantScope.call(tenantId, () -> catchUp(tenant.getValue(), highWaterMark, tenantMovedBuyers));
+            for (StockRecord stock : tenant.getValue().values()) {
+                if (stock.highestBid != null) {
+                    boolean persisted = stock.persisted;
+                    if (!persisted && !stock.highestBid.isEmpty()) {
+                        // the write-behind may have inserted the row after the snapshot was written
+                        persisted = TenantScope.call(tenantId, () -> highestBidRepository.getByStockId(stock.stockId)) != null;
+                    }
+                    liveOrderBook.install(tenantId, stock.stockId, stock.highestBid, persisted, stock.caughtUp || !stock.persisted);
+                }
+                marginReservationEngine.install(tenantId, stock.stockId, stock.reservationCustomerId, stock.reservationCents, stock.stockQuantity);
+                restoredStocks++;
+            }
+        }
+        for (ExposureRecord exposure : restored.exposures) {
+            if (!movedBuyers.getOrDefault(exposure.tenantId, Collections.emptySet()).contains(exposure.customerId)) {
+                buyerExposureLedger.install(exposure.tenantId, exposure.customerId, exposure.day, exposure.total);
+            }
+        }
+        log.info("Restored " + restoredStocks + " live stocks and " + restored.exposures.size() + " buyer exposures from the auction state snapshot, "
+                + caughtUp + " bids caught up, in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /*
+     * This method replays the bids accepted since the high-water mark on the restored highest bids of one tenant, it runs
+     * with the tenant set on the user context. A stock that changed hands loses its held reservation, and the buyers
+     * involved are left to be seeded from the database again
+     * @return int - the number of bids that moved a highest bid
+     */
+    private int catchUp(Map<Long, StockRecord> stocks, long highWaterMark, Set<Long> movedBuyers) {
+        List<Bid> bids = entityManager.createQuery(
+                        "select b from Bid b where b.bidStatus = :status and b.createdAt >= :since order by b.createdAt, b.id", Bid.class)
+                .setParameter("status", Utils.BID_TYPE.AC)
+                .setParameter("since", new Date(highWaterMark - catchUpSlackMs))
+                .getResultList();
+        int caughtUp = 0;
+        for (Bid bid : bids) {
+            StockRecord stock = stocks.get(bid.getStockId());
+            if (stock == null || stock.highestBid == null) {
+                continue;
+            }
+            // accepted bids of a stock only ever go up, a bid already in the snapshot is not higher than its highest bid
+            if (!stock.highestBid.isEmpty() && bid.getAmount() <= stock.highestBid.getAmount()) {
+                continue;
+            }
+            if (!stock.highestBid.isEmpty()) {
+                movedBuyers.add(stock.highestBid.getCustomerId());
+            }
+            movedBuyers.add(bid.getCustomerId());
+            stock.highestBid = new HighestBidSnapshot(bid.getAmount(), bid.getCustomerId(), bid.getQuantity());
+            stock.reservationCustomerId = null;
+            stock.caughtUp = true;
+            caughtUp++;
+        }
+        return caughtUp;
+    }
+
+    private static Snapshot read(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < CRC_BYTES) {
+            throw new IOException("truncated snapshot");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - CRC_BYTES);
+        if (ByteBuffer.wrap(bytes, bytes.length - CRC_BYTES, CRC_BYTES).getLong() != crc.getValue()) {
+            throw new IOException("checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - CRC_BYTES));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("unknown snapshot format");
+        }
+        Snapshot snapshot = new Snapshot(in.readLong());
+        int stockCount = in.readInt();
+        for (int i = 0; i < stockCount; i++) {
+            snapshot.stocks.add(StockRecord.readFrom(in));
+        }
+        int exposureCount = in.readInt();
+        for (int i = 0; i < exposureCount; i++) {
+            snapshot.exposures.add(new ExposureRecord(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+        }
+        return snapshot;
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static final class Snapshot {
+
+        private final long highWaterMark;
+        private final List<StockRecord> stocks = new ArrayList<>();
+        private final List<ExposureRecord> exposures = new ArrayList<>();
+
+        private Snapshot(long highWaterMark) {
+            this.highWaterMark = highWaterMark;
+        }
+    }
+
+    private static final class StockRecord {
+
+        private static final AuctionStateCache.AuctionState[] STATES = AuctionStateCache.AuctionState.values();
+
+        private final String tenantId;
+        private final Long stockId;
+        private AuctionStateCache.AuctionState state;
+        private HighestBidSnapshot highestBid;
+        private boolean persisted;
+        private Long reservationCustomerId;
+        private long reservationCents;
+        private Integer stockQuantity;
+        private boolean caughtUp;
+
+        private StockRecord(String tenantId, Long stockId) {
+            this.tenantId = tenantId;
+            this.stockId = stockId;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(tenantId);
+            out.writeLong(stockId);
+            out.writeByte(state == null ? -1 : state.ordinal());
+            out.writeBoolean(highestBid != null);
+            if (highestBid != null) {
+                writeInteger(out, highestBid.getAmount());
+                writeLong(out, highestBid.getCustomerId());
+                writeInteger(out, highestBid.getQuantity());
+                out.writeBoolean(persisted);
+            }
+            writeLong(out, reservationCustomerId);
+            if (reservationCustomerId != null) {
+                out.writeLong(reservationCents);
+            }
+            writeInteger(out, stockQuantity);
+        }
+
+        private static StockRecord readFrom(DataInputStream in) throws IOException {
+            StockRecord stock = new StockRecord(in.readUTF(), in.readLong());
+            byte state = in.readByte();
+            stock.state = state < 0 ? null : STATES[state];
+            if (in.readBoolean()) {
+                Integer amount = readInteger(in);
+                Long customerId = readLong(in);
+                Integer quantity = readInteger(in);
+                stock.highestBid = amount == null ? HighestBidSnapshot.EMPTY : new HighestBidSnapshot(amount, customerId, quantity);
+                stock.persisted = in.readBoolean();
+            }
+            stock.reservationCustomerId = readLong(in);
+            if (stock.reservationCustomerId != null) {
+                stock.reservationCents = in.readLong();
+            }
+            stock.stockQuantity = readInteger(in);
+            return stock;
+        }
+    }
+
+    private static final class ExposureRecord {
+
+        private final String tenantId;
+        private final Long customerId;
+        private final long day;
+        private final long total;
+
+        private ExposureRecord(String tenantId, Long customerId, long day, long total) {
+            this.tenantId = tenantId;
+            this.customerId = customerId;
+            this.day = day;
+            this.total = total;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+/*
+ * To be published by the admin start/stop/close actions of a lot after the new stock status has been saved, so the
+ * AuctionStateCache of the bid path applies the change right away instead of when its entry expires.
+ */
+public class AuctionStatusChangedEvent {
+
+    private final String tenantId;
+    private final Long stockId;
+    private final String stockStatus;
+
+    /*
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock whose auction status changed
+     * @param stockStatus - the new status name, e.g. AuctionStarted, AuctionStopped
+     */
+    public AuctionStatusChangedEvent(String tenantId, Long stockId, String stockStatus) {
+        this.tenantId = tenantId;
+        this.stockId = stockId;
+        this.stockStatus = stockStatus;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public Long getStockId() {
+        return stockId;
+    }
+
+    public String getStockStatus() {
+        return stockStatus;
+    }
+}
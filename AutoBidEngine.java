@@ -0,0 +1,244 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Proxy (autobid) ceilings per stock of each tenant, kept in memory sorted by ceiling, highest first and earliest
+ * registration first on ties.
+ *
+ * Registrations are stored in the tenant's proxy_bid_registration table and a stock's proxies are loaded from it on the
+ * stock's first use, so they survive a restart and follow a stock handed off to another node. A proxy that can no longer
+ * win is only dropped from memory, it is dropped again if the stock is reloaded.
+ *
+ * After a bid on a stock, resolve works out the whole proxy war against the new highest bid in one pass: every proxy that
+ * is outbid places one bid at its ceiling (one below the winning amount if its ceiling ties the winner's), in ascending
+ * order, and the strongest proxy finally bids one increment over the second strongest, capped at its own ceiling.
+ * The holder of the highest bid never bids against itself, but its ceiling still sets the price the strongest proxy pays.
+ * Proxies that can no longer beat the price are dropped.
+ * Stocks without registered proxies keep using AutoBidService.
+ */
+@Slf4j
+@Component
+public class AutoBidEngine {
+
+    private static final Comparator<Proxy> STRONGEST_FIRST = Comparator
+            .comparing((Proxy proxy) -> proxy.ceiling, Comparator.reverseOrder())
+            .thenComparingLong(proxy -> proxy.registration);
+
+    @Autowired
+    ProxyBidRegistrationRepository proxyBidRegistrationRepository;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Value("${bid.autobid.default-increment:1}")
+    private int defaultIncrement;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Long, ProxyBook>> books = new ConcurrentHashMap<>();
+
+    /*
+     * This method registers or replaces the proxy ceiling of a buyer on a stock, the registration is stored before it is
+     * taken into account
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock
+     * @param customerId - the buyer
+     * @param ceiling - the highest amount the proxy may bid
+     * @param increment - the amount the proxy outbids others by, the default increment if null
+     */
+    public void register(String tenantId, Long stockId, Long customerId, Integer ceiling, Integer increment) {
+        ProxyBidRegistration registration = new ProxyBidRegistration();
+        registration.setStockId(stockId);
+        registration.setCustomerId(customerId);
+        registration.setCeiling(ceiling);
+        registration.setIncrement(increment != null ? increment : defaultIncrement);
+        registration.setCreatedAt(new Date());
+        ProxyBidRegistration saved = TenantScope.call(tenantId, () -> transactionTemplate.execute(status -> {
+            proxyBidRegistrationRepository.deleteByStockIdAndCustomerId(stockId, customerId);
+            return proxyBidRegistrationRepository.save(registration);
+        }));
+        ProxyBook book = book(tenantId, stockId);
+        synchronized (book) {
+            book.add(new Proxy(customerId, saved.getCeiling(), saved.getIncrement(), saved.getId()));
+        }
+    }
+
+    public void cancel(String tenantId, Long stockId, Long customerId) {
+        TenantScope.run(tenantId, () -> transactionTemplate.executeWithoutResult(
+                status -> proxyBidRegistrationRepository.deleteByStockIdAndCustomerId(stockId, customerId)));
+        ProxyBook book = books(tenantId).get(stockId);
+        if (book != null) {
+            synchronized (book) {
+                Proxy proxy = book.byCustomer.remove(customerId);
+                if (proxy != null) {
+                    book.ranking.remove(proxy);
+                }
+            }
+        }
+    }
+
+    public boolean hasProxies(String tenantId, Long stockId) {
+        ProxyBook book = book(tenantId, stockId);
+        synchronized (book) {
+            return !book.ranking.isEmpty();
+        }
+    }
+
+    /*
+     * This method drops the proxies of a stock from memory, e.g. when its auction is closed, their registrations are kept
+     */
+    public void evict(String tenantId, Long stockId) {
+        books(tenantId).remove(stockId);
+    }
+
+    /*
+     * This method resolves the proxy war on a stock against its current highest bid
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock
+     * @param highestBid - the current highest bid of the stock
+     * @return List<ProxyBid> - the proxy bids to place in order, the last one is the winning bid; empty if no proxy bids
+     */
+    public List<ProxyBid> resolve(String tenantId, Long stockId, HighestBidSnapshot highestBid) {
+        ProxyBook book = book(tenantId, stockId);
+        long price = highestBid.isEmpty() ? 0 : highestBid.getAmount();
+        Long holder = highestBid.isEmpty() ? null : highestBid.getCustomerId();
+        synchronized (book) {
+            Proxy winner = null;
+            List<Proxy> outbid = new ArrayList<>();
+            for (Proxy proxy : book.ranking) {
+                boolean canOutbid = proxy.ceiling >= price + proxy.increment;
+                if (winner == null) {
+                    if (canOutbid || proxy.customerId.equals(holder)) {
+                        winner = proxy;
+                    }
+                } else if (proxy.ceiling > price) {
+                    outbid.add(proxy);
+                }
+            }
+            if (winner == null) {
+                return Collections.emptyList();
+            }
+            long secondCeiling = outbid.isEmpty() ? price : outbid.get(0).ceiling;
+            if (winner.customerId.equals(holder) && secondCeiling <= price) {
+                return Collections.emptyList();
+            }
+            long winningAmount = Math.min(winner.ceiling, Math.max(price, secondCeiling) + winner.increment);
+
+            List<ProxyBid> proxyBids = new ArrayList<>(outbid.size() + 1);
+            long lastAmount = price;
+            for (int i = outbid.size() - 1; i >= 0; i--) {
+                Proxy proxy = outbid.get(i);
+                if (proxy.customerId.equals(holder)) {
+                    // the holder's ceiling is already in the winning amount, a bid of its own would only raise its price
+                    continue;
+                }
+                long amount = Math.min(proxy.ceiling, winningAmount - 1);
+                if (amount > lastAmount) {
+                    proxyBids.add(new ProxyBid(proxy.customerId, Math.toIntExact(amount)));
+                    lastAmount = amount;
+                }
+            }
+            // the holder would only bid against itself
+            if (!winner.customerId.equals(holder) || !proxyBids.isEmpty()) {
+                proxyBids.add(new ProxyBid(winner.customerId, Math.toIntExact(winningAmount)));
+            }
+
+            // proxies that cannot beat the winning amount never bid again
+            Iterator<Proxy> iterator = book.ranking.iterator();
+            while (iterator.hasNext()) {
+                Proxy proxy = iterator.next();
+                if (proxy != winner && proxy.ceiling < winningAmount + proxy.increment) {
+                    iterator.remove();
+                    book.byCustomer.remove(proxy.customerId);
+                }
+            }
+            log.debug("Resolved proxy war on stock {} of tenant {} into {} bids, won by customer {} at {}", stockId, tenantId,
+                    proxyBids.size(), winner.customerId, winningAmount);
+            return proxyBids;
+        }
+    }
+
+    private ConcurrentHashMap<Long, ProxyBook> books(String tenantId) {
+        return books.computeIfAbsent(tenantId, id -> new ConcurrentHashMap<>());
+    }
+
+    /*
+     * This method returns the proxies of a stock, loading its registrations on first use. The load runs outside the map,
+     * a book put by a concurrent load in the meantime wins
+     */
+    private ProxyBook book(String tenantId, Long stockId) {
+        ConcurrentHashMap<Long, ProxyBook> tenantBooks = books(tenantId);
+        ProxyBook book = tenantBooks.get(stockId);
+        if (book != null) {
+            return book;
+        }
+        ProxyBook loaded = new ProxyBook();
+        for (ProxyBidRegistration registration : TenantScope.call(tenantId, () -> proxyBidRegistrationRepository.findByStockIdOrderByIdAsc(stockId))) {
+            loaded.add(new Proxy(registration.getCustomerId(), registration.getCeiling(), registration.getIncrement(), registration.getId()));
+        }
+        ProxyBook raced = tenantBooks.putIfAbsent(stockId, loaded);
+        return raced != null ? raced : loaded;
+    }
+
+    public static final class ProxyBid {
+
+        private final Long customerId;
+        private final Integer amount;
+
+        ProxyBid(Long customerId, Integer amount) {
+            this.customerId = customerId;
+            this.amount = amount;
+        }
+
+        public Long getCustomerId() {
+            return customerId;
+        }
+
+        public Integer getAmount() {
+            return amount;
+        }
+    }
+
+    private static final class ProxyBook {
+
+        private final TreeSet<Proxy> ranking = new TreeSet<>(STRONGEST_FIRST);
+        private final Map<Long, Proxy> byCustomer = new HashMap<>();
+
+        private void add(Proxy proxy) {
+            Proxy replaced = byCustomer.put(proxy.customerId, proxy);
+            if (replaced != null) {
+                ranking.remove(replaced);
+            }
+            ranking.add(proxy);
+        }
+    }
+
+    private static final class Proxy {
+
+        private final Long customerId;
+        private final Integer ceiling;
+        private final int increment;
+        private final long registration;
+
+        private Proxy(Long customerId, Integer ceiling, int increment, long registration) {
+            this.customerId = customerId;
+            this.ceiling = ceiling;
+            this.increment = increment;
+            this.registration = registration;
+        }
+    }
+}
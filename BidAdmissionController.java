@@ -0,0 +1,242 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Admission control in front of the stock lanes, so a flood of bids on one hot lot cannot take the database connections
+ * and executors the bids of every other lot need. Every stock and every tenant has a limit on the bids in flight past
+ * BidValidator.rejectLosingBid. The limits adapt AIMD style to the latency of the admitted bids: a bid that completes
+ * within targetLatencyMs while its limit is at least half used raises the limit by one, a slower or failed bid cuts it
+ * by backoffRatio.
+ *
+ * When a stock is at its limit the bids least likely to win are shed straight away: a bid of a bidder who already has a
+ * bid in flight on the stock, and a bid that is not above the highest amount in flight. The other bids, which can still
+ * become the highest bid, wait up to queueWaitMs for a permit.
+ */
+@Component
+public class BidAdmissionController {
+
+    public enum ShedReason {
+        DUPLICATE_BIDDER, BELOW_IN_FLIGHT, STOCK_LIMIT, TENANT_LIMIT
+    }
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${bid.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bid.admission.target-latency-ms:250}")
+    private long targetLatencyMs;
+
+    @Value("${bid.admission.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    @Value("${bid.admission.queue-wait-ms:50}")
+    private long queueWaitMs;
+
+    @Value("${bid.admission.stock.initial-limit:4}")
+    private int stockInitialLimit;
+
+    @Value("${bid.admission.stock.min-limit:1}")
+    private int stockMinLimit;
+
+    @Value("${bid.admission.stock.max-limit:32}")
+    private int stockMaxLimit;
+
+    @Value("${bid.admission.tenant.initial-limit:128}")
+    private int tenantInitialLimit;
+
+    @Value("${bid.admission.tenant.min-limit:8}")
+    private int tenantMinLimit;
+
+    @Value("${bid.admission.tenant.max-limit:1024}")
+    private int tenantMaxLimit;
+
+    // stock limits per tenant, the stock ids of two tenants can be the same
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Long, StockLimit>> stocks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Limit> tenants = new ConcurrentHashMap<>();
+
+    private final Map<ShedReason, Counter> shed = new HashMap<>();
+
+    @PostConstruct
+    public void start() {
+        for (ShedReason reason : ShedReason.values()) {
+            shed.put(reason, meterRegistry.counter("bid.admission.shed", "reason", reason.name()));
+        }
+    }
+
+    /*
+     * This method admits a bid into its stock's lane or sheds it
+     * @param tenantId - the tenant of the bid
+     * @param bidModel - the bid, its bidder and amount decide whether it is shed when the stock is at its limit
+     * @return Permit - the permit to release once the bid is placed, null if the bid is shed
+     */
+    public Permit admit(String tenantId, LiveBidModel bidModel) throws InterruptedException {
+        if (!enabled) {
+            return Permit.UNLIMITED;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueWaitMs);
+        StockLimit stock = stocks(tenantId).computeIfAbsent(bidModel.getStockId(), id -> new StockLimit(stockInitialLimit, stockMinLimit, stockMaxLimit));
+        ShedReason reason = stock.acquire(bidModel.getCustomerId(), bidModel.getAmount(), deadline);
+        if (reason != null) {
+            shed.get(reason).increment();
+            return null;
+        }
+        Limit tenant = tenants.computeIfAbsent(tenantId, id -> new Limit(tenantInitialLimit, tenantMinLimit, tenantMaxLimit));
+        if (!tenant.acquire(deadline)) {
+            stock.release(bidModel.getCustomerId(), bidModel.getAmount());
+            shed.get(ShedReason.TENANT_LIMIT).increment();
+            return null;
+        }
+        return new Permit(this, stock, tenant, bidModel.getCustomerId(), bidModel.getAmount(), System.nanoTime());
+    }
+
+    /*
+     * This method drops the limit of a stock whose auction is closed
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     */
+    public void evict(String tenantId, Long stockId) {
+        stocks(tenantId).remove(stockId);
+    }
+
+    private ConcurrentHashMap<Long, StockLimit> stocks(String tenantId) {
+        return stocks.computeIfAbsent(tenantId, id -> new ConcurrentHashMap<>());
+    }
+
+    private void complete(Permit permit, boolean succeeded) {
+        boolean withinTarget = succeeded && System.nanoTime() - permit.admittedAt <= TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        permit.stock.release(permit.customerId, permit.amount);
+        permit.stock.adjust(withinTarget, backoffRatio);
+        permit.tenant.release();
+        permit.tenant.adjust(withinTarget, backoffRatio);
+    }
+
+    /*
+     * The permit of an admitted bid, released exactly once when the bid is placed
+     */
+    public static final class Permit {
+
+        static final Permit UNLIMITED = new Permit(null, null, null, null, null, 0);
+
+        private final BidAdmissionController controller;
+        private final StockLimit stock;
+        private final Limit tenant;
+        private final Long customerId;
+        private final Integer amount;
+        private final long admittedAt;
+
+        private Permit(BidAdmissionController controller, StockLimit stock, Limit tenant, Long customerId, Integer amount, long admittedAt) {
+            this.controller = controller;
+            this.stock = stock;
+            this.tenant = tenant;
+            this.customerId = customerId;
+            this.amount = amount;
+            this.admittedAt = admittedAt;
+        }
+
+        /*
+         * @param succeeded - false if the bid failed with an exception (lane timeout, database error), which cuts the limits
+         */
+        public void release(boolean succeeded) {
+            if (controller != null) {
+                controller.complete(this, succeeded);
+            }
+        }
+    }
+
+    private static class Limit {
+
+        private final int minLimit;
+        private final int maxLimit;
+        private double limit;
+        int inFlight;
+
+        private Limit(int initialLimit, int minLimit, int maxLimit) {
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        synchronized boolean acquire(long deadline) throws InterruptedException {
+            while (isFull()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            inFlight++;
+            return true;
+        }
+
+        synchronized void release() {
+            inFlight--;
+            notifyAll();
+        }
+
+        synchronized void adjust(boolean withinTarget, double backoffRatio) {
+            if (!withinTarget) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if ((inFlight + 1) * 2 >= limit) {
+                // only a limit that is actually used grows, an idle stock keeps its limit
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            notifyAll();
+        }
+
+        boolean isFull() {
+            return inFlight >= (int) limit;
+        }
+    }
+
+    private static final class StockLimit extends Limit {
+
+        // bids in flight per bidder and per amount, read when the stock is at its limit to pick the bids to shed
+        private final Map<Long, Integer> bidders = new HashMap<>();
+        private final TreeMap<Integer, Integer> amounts = new TreeMap<>();
+
+        private StockLimit(int initialLimit, int minLimit, int maxLimit) {
+            super(initialLimit, minLimit, maxLimit);
+        }
+
+        synchronized ShedReason acquire(Long customerId, Integer amount, long deadline) throws InterruptedException {
+            while (isFull()) {
+                if (bidders.containsKey(customerId)) {
+                    return ShedReason.DUPLICATE_BIDDER;
+                }
+                if (!amounts.isEmpty() && amount <= amounts.lastKey()) {
+                    return ShedReason.BELOW_IN_FLIGHT;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return ShedReason.STOCK_LIMIT;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            inFlight++;
+            bidders.merge(customerId, 1, Integer::sum);
+            amounts.merge(amount, 1, Integer::sum);
+            return null;
+        }
+
+        synchronized void release(Long customerId, Integer amount) {
+            bidders.computeIfPresent(customerId, (id, count) -> count == 1 ? null : count - 1);
+            amounts.computeIfPresent(amount, (value, count) -> count == 1 ? null : count - 1);
+            release();
+        }
+    }
+}
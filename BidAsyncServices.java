@@ -2,34 +2,35 @@ package cone.customer.api.auctionservice.services.bidhandlingservices;
 
 import cone.customer.api.auctionservice.entity.Bid;
 import cone.customer.api.auctionservice.model.LiveBidModel;
-import cone.customer.api.auctionservice.repository.BidRepository;
 import cone.customer.utils.shared.Utils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 @Component
 public class BidAsyncServices {
 
     @Autowired
-    BidRepository bidRepository;
-
-    @Async
-    public void insertRejectBid(LiveBidModel bidModel, Utils.BID_TYPE bidType, String message){
-
-        Date bidSubmissionDate;
-        if (bidModel.getBidDate() != null) {
-            try {
-                bidSubmissionDate = Date.from(Instant.parse(bidModel.getBidDate()));
-            }catch (Exception e){
-                bidSubmissionDate = null;
-            }
-        }else{
-            bidSubmissionDate = null;
-        }
+    RejectBidSink rejectBidSink;
+
+    @Autowired
+    AdminBidFeed adminBidFeed;
+
+    /*
+     * This method records a rejected bid in a batch of the RejectBidSink and streams it to the admin consoles.
+     * Rejects are not waited on to be inserted, as the insert of a reject was never waited on
+     * @param bidModel - the rejected bid request
+     * @param tenantId - the tenant of the bid
+     * @param bidType - the reject type (LB, SB, OL, ER)
+     * @param message - the reject description stored with the bid
+     */
+    public void insertRejectBid(LiveBidModel bidModel, String tenantId, Utils.BID_TYPE bidType, String message){
+
+        Date bidSubmissionDate = BidTimestamps.parseBidDate(bidModel.getBidDate(), null);
 
         Bid bid = new Bid();
         bid.setStockId(bidModel.getStockId());
@@ -45,6 +46,20 @@ public class BidAsyncServices {
         bid.setBidType("BID");
         bid.setBidTypeCd("BIDD");
         bid.setApprovedYn("N");
-        this.bidRepository.save(bid);
+        adminBidFeed.publish(tenantId, bidModel.getStockId(), AdminBidFeed.REJECTED, createRejectDataForAdmin(bid, bidType, message));
+        this.rejectBidSink.submit(tenantId, bid);
+    }
+
+    private Map<String, Object> createRejectDataForAdmin(Bid bid, Utils.BID_TYPE bidType, String message) {
+        // 7 entries, sized so the map never resizes
+        Map<String, Object> mapBid = new HashMap<>(16);
+        mapBid.put("stock_id", bid.getStockId());
+        mapBid.put("price", bid.getAmount());
+        mapBid.put("buyer_id", bid.getCustomerId());
+        mapBid.put("bid_status", bidType.name());
+        mapBid.put("reason", message);
+        mapBid.put("bid_received_date", BidTimestamps.format(Instant.now()));
+        mapBid.put("bid_desk_no", bid.getBidDeskNo());
+        return mapBid;
     }
 }
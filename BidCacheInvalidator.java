@@ -0,0 +1,153 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.entity.Customer;
+import cone.customer.api.auctionservice.entity.MvtLaBuyers;
+import cone.customer.api.auctionservice.entity.Stock;
+import cone.customer.api.auctionservice.repository.StockRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/*
+ * Keeps the caches of the bid path in step with the admin edits made through the rest of the service.
+ * The writes of the admin services are intercepted on their way out, and the caches of the edited tenant are refreshed
+ * once the edit is committed (right away when there is no transaction), so the next bid sees the edit instead of
+ * waiting for the cache's TTL.
+ * The caches are injected lazily: an aspect is created while the advised beans are being proxied, and a cache created
+ * with it would pull in the services it watches before they can be advised.
+ */
+@Slf4j
+@Aspect
+@Component
+public class BidCacheInvalidator {
+
+    @Lazy
+    @Autowired
+    BidSettingsCache bidSettingsCache;
+
+    @Lazy
+    @Autowired
+    AuctionStateCache auctionStateCache;
+
+    @Lazy
+    @Autowired
+    BuyerProfileCache buyerProfileCache;
+
+    @Lazy
+    @Autowired
+    StockRepository stockRepository;
+
+    @Autowired
+    ApplicationEventPublisher applicationEventPublisher;
+
+    /*
+     * This method drops the cached bid settings of the tenant whose settings were edited
+     */
+    @AfterReturning("execution(* cone.customer.api.auctionservice.services.SettingsService.save*(..))"
+            + " || execution(* cone.customer.api.auctionservice.services.SettingsService.update*(..))"
+            + " || execution(* cone.customer.api.auctionservice.services.SettingsService.set*(..))"
+            + " || execution(* cone.customer.api.auctionservice.services.SettingsService.delete*(..))")
+    public void afterSettingsChange(JoinPoint joinPoint) {
+        String tenantId = BidContext.currentTenantId();
+        log.debug("Settings of tenant {} changed by {}, dropping the cached bid settings", tenantId, joinPoint.getSignature().getName());
+        afterCommit(() -> bidSettingsCache.invalidate(tenantId));
+    }
+
+    /*
+     * This method publishes an AuctionStatusChangedEvent for each stock held by the AuctionStateCache that the admin
+     * start/stop/close actions wrote, with its status re-read once the write is committed. The stocks are taken from the
+     * Stock entities and the Long stock ids passed to the repository
+     */
+    @AfterReturning("execution(* cone.customer.api.auctionservice.repository.StockRepository.save*(..))"
+            + " || execution(* cone.customer.api.auctionservice.repository.StockRepository.update*(..))")
+    public void afterStockChange(JoinPoint joinPoint) {
+        String tenantId = BidContext.currentTenantId();
+        Set<Long> stockIds = new LinkedHashSet<>();
+        for (Object arg : joinPoint.getArgs()) {
+            collectStockIds(arg, stockIds);
+        }
+        stockIds.removeIf(stockId -> !auctionStateCache.holds(tenantId, stockId));
+        if (stockIds.isEmpty()) {
+            return;
+        }
+        afterCommit(() -> stockIds.forEach(stockId -> publishStatus(tenantId, stockId)));
+    }
+
+    /*
+     * This method drops the cached profile of the buyers whose limit or name an admin edited, once the edit is committed.
+     * The buyers are taken from the MvtLaBuyers and Customer entities and the Long customer ids passed to the repository
+     */
+    @AfterReturning("execution(* cone.customer.api.auctionservice.repository.MvtLaBuyersDAO.save*(..))"
+            + " || execution(* cone.customer.api.auctionservice.repository.MvtLaBuyersDAO.update*(..))"
+            + " || execution(* cone.customer.api.auctionservice.repository.MvtLaBuyersDAO.delete*(..))"
+            + " || execution(* cone.customer.api.auctionservice.repository.CustomerRepository.save*(..))"
+            + " || execution(* cone.customer.api.auctionservice.repository.CustomerRepository.update*(..))"
+            + " || execution(* cone.customer.api.auctionservice.repository.CustomerRepository.delete*(..))")
+    public void afterBuyerChange(JoinPoint joinPoint) {
+        String tenantId = BidContext.currentTenantId();
+        Set<Long> customerIds = new LinkedHashSet<>();
+        for (Object arg : joinPoint.getArgs()) {
+            collectCustomerIds(arg, customerIds);
+        }
+        if (customerIds.isEmpty()) {
+            return;
+        }
+        afterCommit(() -> customerIds.forEach(customerId -> buyerProfileCache.evict(tenantId, customerId)));
+    }
+
+    private void collectCustomerIds(Object arg, Set<Long> customerIds) {
+        if (arg instanceof MvtLaBuyers || arg instanceof Customer) {
+            customerIds.add(buyerProfileCache.idOf(arg));
+        } else if (arg instanceof Long) {
+            customerIds.add((Long) arg);
+        } else if (arg instanceof Iterable) {
+            for (Object element : (Iterable<?>) arg) {
+                collectCustomerIds(element, customerIds);
+            }
+        }
+    }
+
+    private void publishStatus(String tenantId, Long stockId) {
+        try {
+            String stockStatus = TenantScope.call(tenantId, () -> stockRepository.findStockStatusById(stockId));
+            applicationEventPublisher.publishEvent(new AuctionStatusChangedEvent(tenantId, stockId, stockStatus));
+        } catch (Exception e) {
+            log.error("Publishing the auction status of stock " + stockId + " of tenant " + tenantId + " failed with error: " + e.getMessage());
+        }
+    }
+
+    private static void collectStockIds(Object arg, Set<Long> stockIds) {
+        if (arg instanceof Stock) {
+            stockIds.add(((Stock) arg).getId());
+        } else if (arg instanceof Long) {
+            stockIds.add((Long) arg);
+        } else if (arg instanceof Iterable) {
+            for (Object element : (Iterable<?>) arg) {
+                collectStockIds(element, stockIds);
+            }
+        }
+    }
+
+    private static void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+}
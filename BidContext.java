@@ -0,0 +1,78 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.connect1.coreusercontext.UserContext;
+import cone.customer.api.auctionservice.helper.SpringEnvironmentHelper;
+import cone.customer.api.auctionservice.model.LiveBidModel;
+
+/*
+ * Who places a bid: the tenant, the bidder and whether the bid comes from autobid. Resolved once per bid from the user
+ * context of the request and passed through validation, processing and the post-accept steps, so none of them reads
+ * UserContext again and the bid can move between threads.
+ */
+public final class BidContext {
+
+    private static final String LOCAL_TENANT_ID = "AGRI_CARD_VGCP_1";
+
+    private final String tenantId;
+    private final Long bidderId;
+    private final boolean autobid;
+
+    private BidContext(String tenantId, Long bidderId, boolean autobid) {
+        this.tenantId = tenantId;
+        this.bidderId = bidderId;
+        this.autobid = autobid;
+    }
+
+    /*
+     * This method resolves the context of a bid from the user context of the current request.
+     * Autobids and local bids are placed for the customer of the bid model, other bids for the logged in customer
+     * @param bidModel - the bid request model
+     * @param isAutobid - true if the bid is placed from autobid service
+     */
+    public static BidContext resolve(LiveBidModel bidModel, Boolean isAutobid) {
+        boolean autobid = Boolean.TRUE.equals(isAutobid);
+        if (SpringEnvironmentHelper.isLocalEnvironment()) {
+            return new BidContext(LOCAL_TENANT_ID, bidModel.getCustomerId(), autobid);
+        }
+        Long bidderId = autobid ? bidModel.getCustomerId() : Long.valueOf(UserContext.getCustomerId());
+        return new BidContext(UserContext.getTenantId(), bidderId, autobid);
+    }
+
+    /*
+     * This method returns the tenant of the current request, for the calls that need no bidder (autobid registration)
+     * or whose bidder is not the logged in customer (the desk batches, placed for the customer of each bid model)
+     */
+    public static String currentTenantId() {
+        if (SpringEnvironmentHelper.isLocalEnvironment())
+            return LOCAL_TENANT_ID;
+        return UserContext.getTenantId();
+    }
+
+    /*
+     * This method returns the logged in customer of the current request, null when running locally without a user context
+     */
+    public static Long currentCustomerId() {
+        if (SpringEnvironmentHelper.isLocalEnvironment())
+            return null;
+        return Long.valueOf(UserContext.getCustomerId());
+    }
+
+    /*
+     * This method builds the context of a bid placed by the service itself, e.g. a proxy bid
+     */
+    public static BidContext of(String tenantId, Long bidderId, boolean autobid) {
+        return new BidContext(tenantId, bidderId, autobid);
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public Long getBidderId() {
+        return bidderId;
+    }
+
+    public boolean isAutobid() {
+        return autobid;
+    }
+}
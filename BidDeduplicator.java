@@ -0,0 +1,139 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.customexceptions.BidProcessingFailedException;
+import cone.customer.utils.models.CommonResponseModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Remembers the outcome of every bid submitted with a client bid token for windowMs, per stock of each tenant, so a
+ * retried submission gets the response of the original bid without being validated, processed or recorded again.
+ * In cluster mode tokens are claimed on the node owning the stock, so a retry that reaches another node is still caught.
+ * A retry that arrives while the original is still being placed waits for its outcome.
+ * Each stock keeps at most perStockCapacity tokens, oldest first out, and is dropped when its auction closes.
+ */
+@Component
+public class BidDeduplicator {
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${bid.dedup.window-ms:60000}")
+    private long windowMs;
+
+    @Value("${bid.dedup.per-stock-capacity:1024}")
+    private int perStockCapacity;
+
+    @Value("${bid.dedup.wait-ms:10000}")
+    private long waitMs;
+
+    private final ConcurrentHashMap<String, Map<Long, LinkedHashMap<String, Outcome>>> tenants = new ConcurrentHashMap<>();
+
+    private Counter duplicates;
+
+    @PostConstruct
+    public void start() {
+        duplicates = meterRegistry.counter("bid.dedup.duplicates");
+    }
+
+    /*
+     * This method claims a bid token for the given outcome
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock bid on
+     * @param customerId - the bidder, tokens of different bidders never collide
+     * @param bidToken - the client bid token
+     * @param outcome - the outcome the caller completes once the bid is placed
+     * @return CompletableFuture - the outcome of the original bid if the token was already claimed, null otherwise
+     */
+    public CompletableFuture<ResponseEntity<CommonResponseModel>> claim(String tenantId, Long stockId, Long customerId, String bidToken,
+                                                                       CompletableFuture<ResponseEntity<CommonResponseModel>> outcome) {
+        LinkedHashMap<String, Outcome> outcomes = tenants.computeIfAbsent(tenantId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(stockId, id -> new LinkedHashMap<>());
+        String key = customerId + ":" + bidToken;
+        long now = System.currentTimeMillis();
+        synchronized (outcomes) {
+            expire(outcomes, now);
+            Outcome original = outcomes.get(key);
+            if (original != null) {
+                duplicates.increment();
+                return original.response;
+            }
+            outcomes.put(key, new Outcome(outcome, now));
+            return null;
+        }
+    }
+
+    /*
+     * This method forgets a claimed token whose bid failed with an exception, so a retry is placed again
+     */
+    public void release(String tenantId, Long stockId, Long customerId, String bidToken) {
+        Map<Long, LinkedHashMap<String, Outcome>> stocks = tenants.get(tenantId);
+        LinkedHashMap<String, Outcome> outcomes = stocks == null ? null : stocks.get(stockId);
+        if (outcomes != null) {
+            synchronized (outcomes) {
+                outcomes.remove(customerId + ":" + bidToken);
+            }
+        }
+    }
+
+    /*
+     * This method waits for the outcome of the original bid of a duplicate
+     * @param original - the outcome returned by claim
+     * @return ResponseEntity<CommonResponseModel> - the response of the original bid
+     */
+    public ResponseEntity<CommonResponseModel> await(CompletableFuture<ResponseEntity<CommonResponseModel>> original) throws Exception {
+        try {
+            return original.get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            throw new BidProcessingFailedException("Original bid is still being placed", e);
+        }
+    }
+
+    public void evict(String tenantId, Long stockId) {
+        Map<Long, LinkedHashMap<String, Outcome>> stocks = tenants.get(tenantId);
+        if (stocks != null) {
+            stocks.remove(stockId);
+        }
+    }
+
+    private void expire(LinkedHashMap<String, Outcome> outcomes, long now) {
+        Iterator<Outcome> iterator = outcomes.values().iterator();
+        while (iterator.hasNext()) {
+            Outcome eldest = iterator.next();
+            if (outcomes.size() < perStockCapacity && now - eldest.claimedAt <= windowMs) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+
+    private static final class Outcome {
+
+        private final CompletableFuture<ResponseEntity<CommonResponseModel>> response;
+        private final long claimedAt;
+
+        private Outcome(CompletableFuture<ResponseEntity<CommonResponseModel>> response, long claimedAt) {
+            this.response = response;
+            this.claimedAt = claimedAt;
+        }
+    }
+}
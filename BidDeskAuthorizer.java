@@ -0,0 +1,48 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Decides which buyers a bidding desk may bid for. A desk is the logged in customer of the batch request, it may bid
+ * for itself and for the buyers assigned to it, read with bid.desk.buyers-query (JPQL, parameters :deskId and
+ * :customerIds, selecting the customer ids of the assigned buyers).
+ */
+@Component
+public class BidDeskAuthorizer {
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Value("${bid.desk.buyers-query:select b.customerId from MvtLaBuyers b where b.deskCustomerId = :deskId and b.customerId in :customerIds}")
+    private String buyersQuery;
+
+    /*
+     * This method returns the buyers among the given ones the desk may bid for
+     * @param deskId - the customer id of the desk, null when running locally without a user context
+     * @param customerIds - the buyers of the batch
+     * @return Set<Long> - the buyers the desk may bid for, all of them when running locally
+     */
+    public Set<Long> authorizedBuyers(Long deskId, Collection<Long> customerIds) {
+        if (deskId == null) {
+            return new HashSet<>(customerIds);
+        }
+        Set<Long> authorized = new HashSet<>();
+        if (customerIds.contains(deskId)) {
+            authorized.add(deskId);
+        }
+        for (Number customerId : entityManager.createQuery(buyersQuery, Number.class)
+                .setParameter("deskId", deskId)
+                .setParameter("customerIds", customerIds)
+                .getResultList()) {
+            authorized.add(customerId.longValue());
+        }
+        return authorized;
+    }
+}
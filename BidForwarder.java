@@ -0,0 +1,20 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.utils.models.CommonResponseModel;
+import org.springframework.http.ResponseEntity;
+
+/*
+ * Sends a bid to the cluster node that owns its stock, used by BidRouter in cluster mode
+ */
+public interface BidForwarder {
+
+    /*
+     * This method places the bid on the given node and returns that node's response
+     * @param nodeId - the owner of the stock
+     * @param context - the tenant and bidder of the bid
+     * @param bidModel - the bid request model
+     * @param bidToken - the client bid token, deduplicated on the owner; null if the bid is not deduplicated
+     */
+    ResponseEntity<CommonResponseModel> forward(String nodeId, BidContext context, LiveBidModel bidModel, String bidToken) throws Exception;
+}
@@ -0,0 +1,147 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * Signs the bids forwarded between cluster nodes and verifies them on the owning node.
+ * The tenant, the bidder, the bid token and the bid itself are carried in one token (claims as JSON and their
+ * HMAC-SHA256 under the shared bid.cluster.secret, both base64url, joined by a dot) so the internal bid endpoint takes
+ * the bidder from the signature and never from a header a client could set. A token is only accepted for the bid it
+ * was issued for and within maxSkewMs of being issued.
+ */
+@Slf4j
+@Component
+public class BidForwardingSigner {
+
+    public static final String TOKEN_HEADER = "X-Bid-Forward-Token";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    @Value("${bid.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${bid.cluster.secret:}")
+    private String secret;
+
+    @Value("${bid.cluster.max-skew-ms:30000}")
+    private long maxSkewMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @PostConstruct
+    public void start() {
+        if (clusterEnabled && (secret == null || secret.isEmpty())) {
+            throw new IllegalStateException("bid.cluster.secret must be set when bid.cluster is enabled");
+        }
+    }
+
+    /*
+     * This method issues the token of a bid forwarded to the owner of its stock
+     * @param context - the tenant and bidder of the bid
+     * @param bidModel - the forwarded bid
+     * @param bidToken - the client bid token, null if the bid is not deduplicated
+     * @return String - the token to send in TOKEN_HEADER
+     */
+    public String sign(BidContext context, LiveBidModel bidModel, String bidToken) throws Exception {
+        Map<String, Object> claims = new HashMap<>(16);
+        claims.put("tenant_id", context.getTenantId());
+        claims.put("bidder_id", context.getBidderId());
+        claims.put("autobid", context.isAutobid());
+        claims.put("bid_token", bidToken);
+        claims.put("stock_id", bidModel.getStockId());
+        claims.put("customer_id", bidModel.getCustomerId());
+        claims.put("amount", bidModel.getAmount());
+        claims.put("quantity", bidModel.getQuantity());
+        claims.put("issued_at", System.currentTimeMillis());
+        byte[] payload = objectMapper.writeValueAsBytes(claims);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(mac(payload));
+    }
+
+    /*
+     * This method verifies the token of a forwarded bid
+     * @param token - the token from TOKEN_HEADER
+     * @param bidModel - the bid received with the token
+     * @return ForwardedBid - the context and bid token of the bid, null if the token is missing, forged, expired or
+     * issued for another bid
+     */
+    public ForwardedBid verify(String token, LiveBidModel bidModel) {
+        if (token == null) {
+            return null;
+        }
+        int separator = token.indexOf('.');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            byte[] payload = decoder.decode(token.substring(0, separator));
+            if (!MessageDigest.isEqual(mac(payload), decoder.decode(token.substring(separator + 1)))) {
+                return null;
+            }
+            Map<?, ?> claims = objectMapper.readValue(payload, Map.class);
+            long issuedAt = ((Number) claims.get("issued_at")).longValue();
+            if (Math.abs(System.currentTimeMillis() - issuedAt) > maxSkewMs
+                    || !sameNumber(claims.get("stock_id"), bidModel.getStockId())
+                    || !sameNumber(claims.get("customer_id"), bidModel.getCustomerId())
+                    || !sameNumber(claims.get("amount"), bidModel.getAmount())
+                    || !sameNumber(claims.get("quantity"), bidModel.getQuantity())) {
+                return null;
+            }
+            Number bidderId = (Number) claims.get("bidder_id");
+            BidContext context = BidContext.of((String) claims.get("tenant_id"), bidderId == null ? null : bidderId.longValue(),
+                    Boolean.TRUE.equals(claims.get("autobid")));
+            return new ForwardedBid(context, (String) claims.get("bid_token"));
+        } catch (Exception e) {
+            log.warn("Rejected forwarded bid token: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private byte[] mac(byte[] payload) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+        return mac.doFinal(payload);
+    }
+
+    private static boolean sameNumber(Object claim, Number value) {
+        if (claim == null || value == null) {
+            return claim == null && value == null;
+        }
+        return claim instanceof Number && Objects.equals(((Number) claim).longValue(), value.longValue());
+    }
+
+    public static final class ForwardedBid {
+
+        private final BidContext context;
+        private final String bidToken;
+
+        private ForwardedBid(BidContext context, String bidToken) {
+            this.context = context;
+            this.bidToken = bidToken;
+        }
+
+        public BidContext getContext() {
+            return context;
+        }
+
+        public String getBidToken() {
+            return bidToken;
+        }
+    }
+}
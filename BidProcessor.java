@@ -1,14 +1,10 @@
 package cone.customer.api.auctionservice.services.bidhandlingservices;
 
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.connect1.coreusercontext.UserContext;
-import com.github.javafaker.Bool;
 import com.google.firebase.database.FirebaseDatabase;
 import cone.customer.api.auctionservice.customexceptions.BidProcessingFailedException;
 import cone.customer.api.auctionservice.entity.*;
 import cone.customer.api.auctionservice.enums.BidType;
 import cone.customer.api.auctionservice.eventpublishers.BidPlacedEventPublisher;
-import cone.customer.api.auctionservice.helper.SpringEnvironmentHelper;
 import cone.customer.api.auctionservice.model.LiveBidModel;
 import cone.customer.api.auctionservice.repository.*;
 import cone.customer.api.auctionservice.services.*;
@@ -17,8 +13,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import javax.annotation.PostConstruct;
-import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.*;
 
@@ -30,15 +24,18 @@ public class BidProcessor {
     BidRepository bidRepository;
 
     @Autowired
-    private  HighestBidRepository highestBidRepository;
+    private LiveOrderBook liveOrderBook;
+
     @Autowired
-    private BidPersister bidPersister;
+    private BuyerExposureLedger buyerExposureLedger;
 
     @Autowired
-    AsyncUpdator asyncProcessor;
+    private MarginReservationEngine marginReservationEngine;
+    @Autowired
+    private BidPersister bidPersister;
 
     @Autowired
-    AuctionStatusRepository auctionStatusRepository;
+    AsyncUpdator asyncProcessor;
 
     @Autowired
     private UpdateExpectedPrice updateExpectedPrice;
@@ -57,72 +54,119 @@ public class BidProcessor {
     @Autowired
     UpdateBidsToFirebaseForAdmin updateBidsToFirebaseForAdmin;
 
-    String tenantId;
-    private static final String LIVE_CUST = "/1/highest_bids/";
+    @Autowired
+    HighestBidFirebasePublisher highestBidFirebasePublisher;
+
+    @Autowired
+    AuctionStateCache auctionStateCache;
+
+    @Autowired
+    PostAcceptPipeline postAcceptPipeline;
+
+    @Autowired
+    AutoBidEngine autoBidEngine;
+
     private static final String FINAL_BID = "/finalbid/";
     private static final String LIVE_AUCTION = "/live_auction/1";
     //create constructor for class
 
-    public Bid process(LiveBidModel bidModel, Stock stock) throws Exception {
-
-        if (SpringEnvironmentHelper.isLocalEnvironment())
-            tenantId = "AGRI_CARD_VGCP_1";
-        else
-            tenantId = UserContext.getTenantId();
-
-        updateHighestBid(bidModel);
-        Bid bid = updateBidTableAsAccepted(bidModel);
+    /*
+     * This method processes an accepted bid, recording the latency of every stage on the given trace
+     * @param bidModel - the accepted bid
+     * @param stock - the stock bid on
+     * @param context - the tenant and bidder of the bid, resolved once when the bid was received
+     * @param trace - the trace of the bid
+     * @return Bid - the accepted bid row
+     */
+    public Bid process(LiveBidModel bidModel, Stock stock, BidContext context, BidStageMetrics.BidTrace trace) throws Exception {
+        String tenantId = context.getTenantId();
+
+        long stageStart = trace.start();
+        HighestBidSnapshot previousHighestBid = updateHighestBid(tenantId, bidModel);
+        HighestBidSnapshot newHighestBid = liveOrderBook.get(tenantId, bidModel.getStockId());
+        buyerExposureLedger.transfer(tenantId, previousHighestBid, newHighestBid);
+        trace.record("updateHighestBid", stageStart);
+        Bid bid;
+        stageStart = trace.start();
+        try {
+            bid = updateBidTableAsAccepted(bidModel);
+        } catch (Exception e) {
+            restoreHighestBid(tenantId, bidModel.getStockId(), previousHighestBid, newHighestBid);
+            throw e;
+        }
+        trace.record("updateBidTableAsAccepted", stageStart);
+        // the margin engine puts its own reservations back if the transaction rolls back
+        marginReservationEngine.commit(tenantId, bidModel.getStockId());
+        restoreHighestBidOnRollback(tenantId, bidModel.getStockId(), previousHighestBid, newHighestBid);
 
         //Firebase write is kept after DB update to avoid write to firebase if DB update fails
-        updateFireBaseHighestBidNode(bidModel);
+        stageStart = trace.start();
+        updateFireBaseHighestBidNode(bidModel, tenantId);
+        trace.record("updateFireBaseHighestBidNode", stageStart);
 
         //Update timestamp when auction is stopped
-        updateLatestTimestampWhenAuctionIsStopped(bidModel);
+        stageStart = trace.start();
+        updateLatestTimestampWhenAuctionIsStopped(bidModel, tenantId);
+        trace.record("updateLatestTimestampWhenAuctionIsStopped", stageStart);
 
-        //Async processing of bid
-        updateBidsToFirebaseForAdmin.process(bidModel, bid);
         //updateExpectedPrice.init(bidModel.getStockId());
-        autoBidService.init(bidModel.getStockId(), bidModel.getAmount(), bidModel.getCustomerId(), "Live");
-        stockActiveBidderService.update(stock, true);
-        this.bidPlacedEventPublisher.publish(stock,bid, BidType.ONLINE);
+        // proxy wars of stocks with proxies in the AutoBidEngine are resolved by LiveBidServicesV3 once the bid is placed
+        if (!autoBidEngine.hasProxies(tenantId, bidModel.getStockId())) {
+            stageStart = trace.start();
+            autoBidService.init(bidModel.getStockId(), bidModel.getAmount(), bidModel.getCustomerId(), "Live");
+            trace.record("autoBidService", stageStart);
+        }
+
+        //Low-priority side effects run on the post-accept pipeline once the bid is committed
+        stageStart = trace.start();
+        postAcceptPipeline.afterCommit(PostAcceptPipeline.Step.ADMIN_FEED, () -> updateBidsToFirebaseForAdmin.process(bidModel, bid, tenantId));
+        postAcceptPipeline.afterCommit(PostAcceptPipeline.Step.ACTIVE_BIDDERS, () -> stockActiveBidderService.update(stock, true));
+        postAcceptPipeline.afterCommit(PostAcceptPipeline.Step.EVENTS, () -> this.bidPlacedEventPublisher.publish(stock, bid, BidType.ONLINE));
+        trace.record("postAcceptPipeline", stageStart);
 
         return bid;
     }
 
 
 
-    public void updateHighestBid(LiveBidModel bidModel) throws BidProcessingFailedException {
+    /*
+     * This method makes the bid the highest bid of its stock in the order book,
+     * the highest_bid table is updated asynchronously by the order book write-behind
+     * @param tenantId - the tenant of the bid
+     * @param bidModel - the accepted bid
+     * @return HighestBidSnapshot - the highest bid that was replaced
+     */
+    public HighestBidSnapshot updateHighestBid(String tenantId, LiveBidModel bidModel) throws BidProcessingFailedException {
         try {
-            HighestBid highestBid = highestBidRepository.getByStockId(bidModel.getStockId());
-
-            highestBid.setStockId(bidModel.getStockId());
-            highestBid.setQuantity(bidModel.getQuantity());
-            highestBid.setCustomerId(bidModel.getCustomerId());
-            highestBid.setAmount(bidModel.getAmount());
-
-            if (highestBid.getCreatedAt() == null) {
-                highestBid.setCreatedAt(new Date());
-            } else {
-                highestBid.setModifiedAt(new Date());
-                highestBid.setUpdatedAt(new Date());
-
-            }
-
-            saveHighestBid(highestBid);
+            return liveOrderBook.accept(tenantId, bidModel);
         } catch (Exception exp) {
             throw new BidProcessingFailedException("Insertion of highest bid failed for stock: " + bidModel.getStockId() + " with error: " + exp.getMessage(), exp);
         }
     }
 
-    private void saveHighestBid(HighestBid highestBid) {
-        boolean enableRawQuery = true;
-
-        if (enableRawQuery) {
-            highestBidRepository.updateHighestBidsForStockInLiveBid(highestBid.getAmount(), highestBid.getCustomerId(), highestBid.getStockId(),highestBid.getQuantity());
-        } else {
-            highestBidRepository.save(highestBid);
-        }
+    /*
+     * This method puts the replaced highest bid back into the order book and moves the exposure back to its bidder
+     * @param tenantId - the tenant of the bid
+     * @param stockId - the stock bid on
+     * @param previousHighestBid - the highest bid replaced by the bid
+     * @param newHighestBid - the bid's highest bid
+     */
+    private void restoreHighestBid(String tenantId, Long stockId, HighestBidSnapshot previousHighestBid, HighestBidSnapshot newHighestBid) {
+        liveOrderBook.restore(tenantId, stockId, previousHighestBid);
+        buyerExposureLedger.transfer(tenantId, newHighestBid, previousHighestBid);
+    }
 
+    /*
+     * This method restores the replaced highest bid if the transaction of the bid rolls back after the bid was recorded,
+     * e.g. on a runtime exception of a later step or a failed commit, and publishes the restored highest bid to firebase.
+     * The transaction completes inside the stock's lane, so no other bid on the stock sees the rolled back highest bid
+     */
+    private void restoreHighestBidOnRollback(String tenantId, Long stockId, HighestBidSnapshot previousHighestBid, HighestBidSnapshot newHighestBid) {
+        BidRollbacks.onRollback(() -> {
+            restoreHighestBid(tenantId, stockId, previousHighestBid, newHighestBid);
+            // the rolled back bid may already be queued for firebase, the restored value replaces it
+            highestBidFirebasePublisher.publish(tenantId, stockId, previousHighestBid.getCustomerId(), previousHighestBid.getAmount());
+        });
     }
 
 
@@ -132,25 +176,16 @@ public class BidProcessor {
         FirebaseDatabase.getInstance().getReference(node).updateChildrenAsync(data);
     }
 
+    /*
+     * This method inserts the accepted bid into the bid table, in the transaction of the bid
+     * @param bidModel - the accepted bid
+     * @return Bid - the accepted bid row
+     */
     public Bid updateBidTableAsAccepted(LiveBidModel bidModel) throws BidProcessingFailedException {
         try {
 
-            Integer bidId;
-
-            Date bidSubmissionDate;
             Date bidreceivedDate = new Date();
-
-            if (bidModel.getBidDate() != null) {
-                try {
-                    bidSubmissionDate = Date.from(Instant.parse(bidModel.getBidDate()));
-                }catch (Exception e){
-                    bidSubmissionDate = new Date();
-
-                }
-            }else{
-                bidSubmissionDate = new Date();
-
-            }
+            Date bidSubmissionDate = BidTimestamps.parseBidDate(bidModel.getBidDate(), bidreceivedDate);
 
             Bid bid = new Bid();
             bid.setStockId(bidModel.getStockId());
@@ -159,7 +194,7 @@ public class BidProcessor {
             bid.setQuantity(bidModel.getQuantity());
             bid.setBidStatus(Utils.BID_TYPE.AC);
             bid.setBidStatusDesc("Accepted");
-            bid.setCreatedAt(new Date());
+            bid.setCreatedAt(bidreceivedDate);
             bid.setBidSubmissionDate(bidSubmissionDate);
             bid.setBidReceivedDate(bidreceivedDate);
             bid.setBidDeskNo(bidModel.getBid_desk_no());
@@ -175,63 +210,44 @@ public class BidProcessor {
         }
     }
 
-    public void updateFireBaseHighestBidNode(LiveBidModel bidModel) throws BidProcessingFailedException {
-        log.debug("Starting update highestbids" + bidModel.getAmount() +" of customer_id " + bidModel.getCustomerId() + " into Firebase");
+    /*
+     * This method hands the new highest bid to the HighestBidFirebasePublisher, which writes the latest value per stock
+     * to the live_auction and live_cust highest_bids nodes in one multi-path update
+     * @param bidModel - the accepted bid
+     * @param tenantId - the tenant of the bid
+     */
+    public void updateFireBaseHighestBidNode(LiveBidModel bidModel, String tenantId) throws BidProcessingFailedException {
+        log.debug("Starting update highestbids {} of customer_id {} into Firebase", bidModel.getAmount(), bidModel.getCustomerId());
 
         try {
+            highestBidFirebasePublisher.publish(tenantId, bidModel.getStockId(), bidModel.getCustomerId(), bidModel.getAmount());
 
-            if (SpringEnvironmentHelper.isLocalEnvironment())
-                tenantId = "AGRI_CARD_VGCP_1";
-            else
-                tenantId = UserContext.getTenantId();
-
-            Map<String, Object> highestBidData = createHighestBidData(bidModel);
-
-            String liveAuctionNode = tenantId + LIVE_AUCTION;
-            String liveCustNode = "live_cust/" + tenantId + LIVE_CUST;
-
-            updateFirebaseReference(liveAuctionNode + "/highest_bids/" + bidModel.getStockId(), highestBidData);
-            updateFirebaseReference(liveCustNode + bidModel.getStockId(), highestBidData);
-
-            log.debug("Completed update highestbids" + bidModel.getAmount() +" of customer_id " + bidModel.getCustomerId() + " into Firebase");
+            log.debug("Completed update highestbids {} of customer_id {} into Firebase", bidModel.getAmount(), bidModel.getCustomerId());
         } catch (Exception e) {
             throw new BidProcessingFailedException("Failed to process the bid: " + e.getMessage(), e);
         }
     }
 
-    private Map<String, Object> createHighestBidData(LiveBidModel bidModel) {
-        Map<String, Object> highestBidData = new HashMap<>();
-        highestBidData.put("customer_id", bidModel.getCustomerId());
-        highestBidData.put("highest_bid", bidModel.getAmount());
-        return highestBidData;
-    }
-
     private Map<String, Object> createTimestampData() {
-        Map<String, Object> timestampData = new HashMap<>();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        timestampData.put("timestamp", dateFormat.format(new Date()));
-        return timestampData;
+        return Collections.singletonMap("timestamp", BidTimestamps.format(Instant.now()));
     }
 
 
-    public void updateLatestTimestampWhenAuctionIsStopped(LiveBidModel bidModel) throws BidProcessingFailedException {
+    /*
+     * This method refreshes the finalbid timestamp when a bid is accepted while the auction of the stock is stopped (final call)
+     * The auction state is read from the AuctionStateCache instead of the auction status log
+     * @param bidModel - the accepted bid
+     * @param tenantId - the tenant of the bid
+     */
+    public void updateLatestTimestampWhenAuctionIsStopped(LiveBidModel bidModel, String tenantId) throws BidProcessingFailedException {
 
-        System.out.println("updateLatestTimestampWhenAuctionIsStopped");
         try {
+            if (auctionStateCache.get(tenantId, bidModel.getStockId()) == AuctionStateCache.AuctionState.STOPPED) {
 
-            if (SpringEnvironmentHelper.isLocalEnvironment())
-                tenantId = "AGRI_CARD_VGCP_1";
-            else
-                tenantId = UserContext.getTenantId();
-
-            Map<String, Object> timestampData = createTimestampData();
+                Map<String, Object> timestampData = createTimestampData();
 
-            String liveAuctionNode = tenantId + LIVE_AUCTION;
+                String liveAuctionNode = tenantId + LIVE_AUCTION;
 
-            List<AuctionStatusLog> auctionStatus = auctionStatusRepository.findByStock(bidModel.getStockId());
-            if (!auctionStatus.isEmpty() && (auctionStatus.get(auctionStatus.size() - 1).getStockStatus().getName()
-                    .equalsIgnoreCase("AuctionStopped"))) {
                 updateFirebaseReference(liveAuctionNode + FINAL_BID, timestampData);
                 updateFirebaseReference("live_cust/" + tenantId + FINAL_BID, timestampData);
             }
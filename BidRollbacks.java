@@ -0,0 +1,52 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import org.springframework.core.Ordered;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/*
+ * Undoes the in-memory effects of a bid (order book, margin reservations) when the bid's transaction rolls back.
+ * A transaction of a desk batch holds several bids of one stock, each undo putting back the state the bid found, so the
+ * undos run newest first: the bid registered last is undone first, down to the state before the first bid.
+ */
+final class BidRollbacks {
+
+    private BidRollbacks() {
+    }
+
+    /*
+     * This method runs the undo if the transaction of the current thread rolls back, nothing is registered outside a transaction
+     * @param undo - puts back the state the bid replaced
+     */
+    static void onRollback(Runnable undo) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        // synchronizations run in ascending order, each undo is ordered before the ones already registered
+        int order = -TransactionSynchronizationManager.getSynchronizations().size();
+        TransactionSynchronizationManager.registerSynchronization(new Undo(undo, order));
+    }
+
+    private static final class Undo implements TransactionSynchronization, Ordered {
+
+        private final Runnable undo;
+        private final int order;
+
+        private Undo(Runnable undo, int order) {
+            this.undo = undo;
+            this.order = order;
+        }
+
+        @Override
+        public int getOrder() {
+            return order;
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == STATUS_ROLLED_BACK) {
+                undo.run();
+            }
+        }
+    }
+}
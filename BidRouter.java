@@ -0,0 +1,251 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Cluster mode, enabled with bid.cluster.enabled. Every (tenantId, stockId) is owned by one node of bid.cluster.members
+ * (nodeId=baseUrl,...) through a ConsistentHashRing; the owner holds the stock's lane, order book, bid tokens and proxies,
+ * and the other nodes forward the stock's bids to it with a BidForwarder.
+ *
+ * The members are read from bid.cluster.members at start, then followed in the Firebase registry at
+ * bid.cluster.members-path (nodeId -> baseUrl), which the operators edit to scale the cluster. When the members change
+ * (updateMembers) the stocks that move to another node are handed off one by one: the stock keeps being served here until
+ * its lane is drained and its order book flushed and dropped, then its bids are forwarded. A node losing stocks applies a
+ * change right away and the other nodes after bid.cluster.members-apply-delay-ms, so the old owner has flushed the highest
+ * bid by the time bids are forwarded to the new owner. Buyer-level exposure and the buyer cache stay per node and are reconciled from the database, margin is
+ * reserved on the customer's row in the database (MarginReservationEngine) so a customer's margin has a single owner.
+ */
+@Slf4j
+@Component
+public class BidRouter {
+
+    @Autowired
+    BidSequencer bidSequencer;
+
+    @Autowired
+    LiveOrderBook liveOrderBook;
+
+    @Autowired
+    BidDeduplicator bidDeduplicator;
+
+    @Autowired
+    AutoBidEngine autoBidEngine;
+
+    @Value("${bid.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${bid.cluster.node-id:}")
+    private String nodeId;
+
+    @Value("${bid.cluster.members:}")
+    private String members;
+
+    @Value("${bid.cluster.virtual-nodes:128}")
+    private int virtualNodes;
+
+    @Value("${bid.cluster.members-path:bid-cluster/members}")
+    private String membersPath;
+
+    @Value("${bid.cluster.members-apply-delay-ms:5000}")
+    private long membersApplyDelayMs;
+
+    private volatile Map<String, String> memberUrls = Collections.emptyMap();
+    private volatile ConsistentHashRing ring;
+    // stocks owned by this node and stocks being handed off, per tenant
+    private final ConcurrentHashMap<String, Set<Long>> ownedStocks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Long>> releasingStocks = new ConcurrentHashMap<>();
+    // bumped on every change read from the registry, a delayed change is skipped once a newer one arrived
+    private final AtomicLong membersVersion = new AtomicLong();
+    private ScheduledExecutorService membersUpdater;
+    private ValueEventListener membersListener;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        memberUrls = parseMembers(members);
+        ring = new ConsistentHashRing(memberUrls.keySet(), virtualNodes);
+        log.info("Bid cluster node " + nodeId + " started with members " + memberUrls.keySet());
+        if (membersPath.isEmpty()) {
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("bid-cluster-members-");
+        threadFactory.setDaemon(true);
+        membersUpdater = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        membersListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                Map<String, String> registered = new LinkedHashMap<>();
+                for (DataSnapshot member : snapshot.getChildren()) {
+                    registered.put(member.getKey(), String.valueOf(member.getValue()));
+                }
+                onMembersChanged(registered);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                log.error("Following the bid cluster members at " + membersPath + " failed with error: " + error.getMessage());
+            }
+        };
+        FirebaseDatabase.getInstance().getReference(membersPath).addValueEventListener(membersListener);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (membersUpdater == null) {
+            return;
+        }
+        FirebaseDatabase.getInstance().getReference(membersPath).removeEventListener(membersListener);
+        membersUpdater.shutdownNow();
+        membersUpdater.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * This method returns the node owning the given stock if it is not this node
+     * @param tenantId - the tenant of the bid
+     * @param stockId - the stock bid on
+     * @return String - the id of the owning node, null if the bid is placed on this node
+     */
+    public String remoteOwner(String tenantId, Long stockId) {
+        if (!enabled || stocks(releasingStocks, tenantId).contains(stockId)) {
+            return null;
+        }
+        String owner = ring.owner(tenantId, stockId);
+        if (owner == null || owner.equals(nodeId)) {
+            stocks(ownedStocks, tenantId).add(stockId);
+            return null;
+        }
+        return owner;
+    }
+
+    public String memberUrl(String memberId) {
+        return memberUrls.get(memberId);
+    }
+
+    /*
+     * This method applies a change of the cluster members and hands off the stocks this node no longer owns
+     * @param newMembers - node id to base URL of every member, this node included
+     */
+    public synchronized void updateMembers(Map<String, String> newMembers) throws Exception {
+        ConsistentHashRing next = new ConsistentHashRing(newMembers.keySet(), virtualNodes);
+        Map<String, Set<Long>> moving = new LinkedHashMap<>();
+        ownedStocks.forEach((tenantId, stockIds) -> {
+            for (Long stockId : stockIds) {
+                if (!nodeId.equals(next.owner(tenantId, stockId))) {
+                    moving.computeIfAbsent(tenantId, id -> new LinkedHashSet<>()).add(stockId);
+                }
+            }
+        });
+        moving.forEach((tenantId, stockIds) -> stocks(releasingStocks, tenantId).addAll(stockIds));
+        memberUrls = new LinkedHashMap<>(newMembers);
+        ring = next;
+        int handedOff = 0;
+        for (Map.Entry<String, Set<Long>> tenant : moving.entrySet()) {
+            for (Long stockId : tenant.getValue()) {
+                try {
+                    handOff(tenant.getKey(), stockId);
+                    handedOff++;
+                } finally {
+                    stocks(releasingStocks, tenant.getKey()).remove(stockId);
+                }
+            }
+        }
+        log.info("Bid cluster node " + nodeId + " moved to members " + newMembers.keySet() + ", handed off " + handedOff + " stocks");
+    }
+
+    /*
+     * This method schedules a change of the members read from the registry, right away if this node loses stocks with it
+     * and after the apply delay otherwise. An empty registry keeps the current members
+     * @param registered - node id to base URL of every member in the registry
+     */
+    void onMembersChanged(Map<String, String> registered) {
+        if (registered.isEmpty() || registered.equals(memberUrls)) {
+            return;
+        }
+        long version = membersVersion.incrementAndGet();
+        long delayMs = losesStocks(registered.keySet()) ? 0 : membersApplyDelayMs;
+        membersUpdater.schedule(() -> {
+            if (membersVersion.get() != version || registered.equals(memberUrls)) {
+                return;
+            }
+            try {
+                updateMembers(registered);
+            } catch (Exception e) {
+                log.error("Applying the bid cluster members " + registered.keySet() + " failed with error: " + e.getMessage());
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * This method forgets a stock whose auction is closed
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     */
+    public void forget(String tenantId, Long stockId) {
+        stocks(ownedStocks, tenantId).remove(stockId);
+    }
+
+    private void handOff(String tenantId, Long stockId) throws Exception {
+        // waits for the bids in the stock's lane, then flushes and drops what this node holds for the stock
+        bidSequencer.execute(tenantId, stockId, () -> {
+            liveOrderBook.evict(tenantId, stockId);
+            bidDeduplicator.evict(tenantId, stockId);
+            autoBidEngine.evict(tenantId, stockId);
+            return null;
+        });
+        stocks(ownedStocks, tenantId).remove(stockId);
+    }
+
+    private boolean losesStocks(Set<String> memberIds) {
+        ConsistentHashRing next = new ConsistentHashRing(memberIds, virtualNodes);
+        for (Map.Entry<String, Set<Long>> tenant : ownedStocks.entrySet()) {
+            for (Long stockId : tenant.getValue()) {
+                if (!nodeId.equals(next.owner(tenant.getKey(), stockId))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Set<Long> stocks(ConcurrentHashMap<String, Set<Long>> stocksByTenant, String tenantId) {
+        return stocksByTenant.computeIfAbsent(tenantId, id -> ConcurrentHashMap.newKeySet());
+    }
+
+    private static Map<String, String> parseMembers(String members) {
+        Map<String, String> parsed = new LinkedHashMap<>();
+        for (String member : members.split(",")) {
+            String[] idAndUrl = member.trim().split("=", 2);
+            if (!idAndUrl[0].isEmpty()) {
+                parsed.put(idAndUrl[0], idAndUrl.length > 1 ? idAndUrl[1] : "");
+            }
+        }
+        return parsed;
+    }
+}
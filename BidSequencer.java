@@ -0,0 +1,108 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.customexceptions.BidProcessingFailedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Serializes bids per stock: every bid of a stock runs in that stock's lane, one at a time and in arrival order,
+ * while bids of different stocks run in parallel. Stock ids are only unique within a tenant, so lanes are kept per tenant. This replaces database row locks for the check-then-act
+ * between BidValidator and BidProcessor.
+ *
+ * The bid runs on the calling thread so the request's UserContext and transaction stay bound to it.
+ * Lanes are reentrant (an autobid placed from inside a bid of the same stock does not deadlock)
+ * and are removed as soon as no bid is running or waiting on them.
+ */
+@Component
+public class BidSequencer {
+
+    @Value("${bid.sequencer.lane-timeout-ms:5000}")
+    private long laneTimeoutMs;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Long, Lane>> lanes = new ConcurrentHashMap<>();
+
+    /*
+     * This method runs the given task in the lane of the given stock
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock the bid is placed on
+     * @param task - the validation and processing of the bid
+     * @return T - the result of the task
+     */
+    public <T> T execute(String tenantId, Long stockId, BidTask<T> task) throws Exception {
+        ConcurrentHashMap<Long, Lane> tenantLanes = lanes(tenantId);
+        Lane lane = join(tenantLanes, stockId);
+        try {
+            if (!lane.lock.tryLock(laneTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new BidProcessingFailedException("Bid lane of stock: " + stockId + " is busy, please retry",
+                        new TimeoutException("Waited " + laneTimeoutMs + " ms"));
+            }
+            try {
+                return task.run();
+            } finally {
+                lane.lock.unlock();
+            }
+        } finally {
+            leave(tenantLanes, stockId, lane);
+        }
+    }
+
+    /*
+     * This method tells whether the current thread is running a bid in the lane of the given stock, i.e. a bid placed
+     * from it (an autobid) is nested in that bid
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     */
+    public boolean holdsLane(String tenantId, Long stockId) {
+        Lane lane = lanes(tenantId).get(stockId);
+        return lane != null && lane.lock.isHeldByCurrentThread();
+    }
+
+    /*
+     * This method returns the number of stocks that currently have a bid running or waiting
+     */
+    public int activeLanes() {
+        int active = 0;
+        for (ConcurrentHashMap<Long, Lane> tenantLanes : lanes.values()) {
+            active += tenantLanes.size();
+        }
+        return active;
+    }
+
+    private ConcurrentHashMap<Long, Lane> lanes(String tenantId) {
+        return lanes.computeIfAbsent(tenantId, id -> new ConcurrentHashMap<>());
+    }
+
+    private static Lane join(ConcurrentHashMap<Long, Lane> lanes, Long stockId) {
+        return lanes.compute(stockId, (id, lane) -> {
+            Lane current = lane == null ? new Lane() : lane;
+            current.users++;
+            return current;
+        });
+    }
+
+    private static void leave(ConcurrentHashMap<Long, Lane> lanes, Long stockId, Lane lane) {
+        lanes.computeIfPresent(stockId, (id, current) -> {
+            if (current != lane) {
+                return current;
+            }
+            return --current.users == 0 ? null : current;
+        });
+    }
+
+    @FunctionalInterface
+    public interface BidTask<T> {
+        T run() throws Exception;
+    }
+
+    private static final class Lane {
+        // fair, so waiting bids of a stock are served in arrival order
+        private final ReentrantLock lock = new ReentrantLock(true);
+        // only read and written inside ConcurrentHashMap.compute for the lane's stock
+        private int users;
+    }
+}
@@ -0,0 +1,95 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.services.SettingsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Per-tenant snapshot of the settings read on every bid validation.
+ * A snapshot is reloaded from SettingsService after ttlMs, or on the next bid once the BidCacheInvalidator has seen the
+ * settings edited. The load runs with the tenant set (TenantScope), so it reads the right tenant's settings whichever
+ * thread asks first.
+ */
+@Component
+public class BidSettingsCache {
+
+    static final String ALLOW_SELLER_BIDDING_KEY = "allow_seller_biddding_yn";
+
+    @Autowired
+    SettingsService settingsService;
+
+    @Value("${bid.settings.ttl-ms:30000}")
+    private long ttlMs;
+
+    private final ConcurrentHashMap<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /*
+     * This method returns the settings of the given tenant, loading them if they are missing or older than ttlMs
+     * @param tenantId - the tenant of the bid
+     * @return Snapshot - the bid settings of the tenant
+     */
+    public Snapshot get(String tenantId) {
+        Snapshot snapshot = snapshots.get(tenantId);
+        long now = System.currentTimeMillis();
+        if (snapshot == null || now - snapshot.loadedAt > ttlMs) {
+            snapshot = TenantScope.call(tenantId, () -> load(now));
+            snapshots.put(tenantId, snapshot);
+        }
+        return snapshot;
+    }
+
+    /*
+     * This method drops the cached settings of the given tenant, the next bid reloads them
+     * @param tenantId - the tenant whose settings were changed
+     */
+    public void invalidate(String tenantId) {
+        snapshots.remove(tenantId);
+    }
+
+    public void invalidateAll() {
+        snapshots.clear();
+    }
+
+    private Snapshot load(long now) {
+        boolean sellerBiddingBlocked = "N".equalsIgnoreCase(settingsService.getByKeyName1(ALLOW_SELLER_BIDDING_KEY));
+        boolean marginEnabled = settingsService.marginEnabled();
+        Double marginPercentage = marginEnabled ? settingsService.marginPercentage() : null;
+        return new Snapshot(sellerBiddingBlocked, marginEnabled, marginPercentage, now);
+    }
+
+    public static final class Snapshot {
+
+        private final boolean sellerBiddingBlocked;
+        private final boolean marginEnabled;
+        private final Double marginPercentage;
+        private final long loadedAt;
+
+        Snapshot(boolean sellerBiddingBlocked, boolean marginEnabled, Double marginPercentage, long loadedAt) {
+            this.sellerBiddingBlocked = sellerBiddingBlocked;
+            this.marginEnabled = marginEnabled;
+            this.marginPercentage = marginPercentage;
+            this.loadedAt = loadedAt;
+        }
+
+        /*
+         * true if allow_seller_biddding_yn is N
+         */
+        public boolean isSellerBiddingBlocked() {
+            return sellerBiddingBlocked;
+        }
+
+        public boolean isMarginEnabled() {
+            return marginEnabled;
+        }
+
+        /*
+         * the margin percentage, only loaded when margin is enabled
+         */
+        public Double getMarginPercentage() {
+            return marginPercentage;
+        }
+    }
+}
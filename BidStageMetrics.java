@@ -0,0 +1,104 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.utils.shared.Utils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Per-stage latency timers of the bid path, published as bid.stage with tags stage, tenant and outcome (AC/LB/SB/OL/ER)
+ * and a percentile histogram, so the p99 of every stage can be read from the metrics endpoint during a live auction.
+ * The whole bid is recorded as stage "bid" with the outcome of the stage that decided it.
+ * Timers are cached per stage, tenant and outcome, recording a stage does not allocate once its timer exists.
+ */
+@Component
+public class BidStageMetrics {
+
+    static final String METRIC_NAME = "bid.stage";
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Timer[]>> timers = new ConcurrentHashMap<>();
+
+    /*
+     * This method starts the trace of one bid
+     * @param tenantId - the tenant of the bid
+     * @return BidTrace - the trace the stages of the bid are recorded on
+     */
+    public BidTrace trace(String tenantId) {
+        return new BidTrace(this, tenantId == null ? "unknown" : tenantId);
+    }
+
+    Timer timer(String stage, String tenantId, Utils.BID_TYPE outcome) {
+        Timer[] byOutcome = timers.computeIfAbsent(stage, s -> new ConcurrentHashMap<>())
+                .computeIfAbsent(tenantId, t -> new Timer[Utils.BID_TYPE.values().length]);
+        Timer timer = byOutcome[outcome.ordinal()];
+        if (timer == null) {
+            timer = Timer.builder(METRIC_NAME)
+                    .tag("stage", stage)
+                    .tag("tenant", tenantId)
+                    .tag("outcome", outcome.name())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(1_000))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(meterRegistry);
+            byOutcome[outcome.ordinal()] = timer;
+        }
+        return timer;
+    }
+
+    /*
+     * The stages of one bid. A trace is used by the thread placing the bid only.
+     */
+    public static final class BidTrace {
+
+        private final BidStageMetrics metrics;
+        private final String tenantId;
+        private final long startedAt;
+        private Utils.BID_TYPE outcome = Utils.BID_TYPE.AC;
+
+        private BidTrace(BidStageMetrics metrics, String tenantId) {
+            this.metrics = metrics;
+            this.tenantId = tenantId;
+            this.startedAt = System.nanoTime();
+        }
+
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /*
+         * This method records a stage that started at stageStart
+         * @param stage - the stage name, e.g. checkBidIsHigher
+         * @param stageOutcome - AC if the bid passed the stage, the reject type otherwise
+         * @param stageStart - the value returned by start
+         */
+        public void record(String stage, Utils.BID_TYPE stageOutcome, long stageStart) {
+            metrics.timer(stage, tenantId, stageOutcome).record(System.nanoTime() - stageStart, TimeUnit.NANOSECONDS);
+            if (stageOutcome != Utils.BID_TYPE.AC) {
+                outcome = stageOutcome;
+            }
+        }
+
+        public void record(String stage, long stageStart) {
+            record(stage, Utils.BID_TYPE.AC, stageStart);
+        }
+
+        public void fail() {
+            outcome = Utils.BID_TYPE.ER;
+        }
+
+        /*
+         * This method records the whole bid with the outcome decided by its stages
+         */
+        public void finish() {
+            metrics.timer("bid", tenantId, outcome).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/*
+ * Timestamp parsing and formatting shared by the bid path. DateTimeFormatter is immutable and thread-safe, so one instance
+ * replaces the SimpleDateFormat and TimeZone lookup every bid used to allocate.
+ */
+final class BidTimestamps {
+
+    private static final DateTimeFormatter FIREBASE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    private BidTimestamps() {
+    }
+
+    /*
+     * This method formats an instant as yyyy-MM-dd HH:mm:ss in UTC, the format of the Firebase bid nodes
+     */
+    static String format(Instant instant) {
+        return FIREBASE_FORMAT.format(instant);
+    }
+
+    /*
+     * This method parses the ISO-8601 bid date sent by the client
+     * @param bidDate - the bid date of the bid model, may be null
+     * @param fallback - the date returned if the bid date is missing or invalid
+     * @return Date - the bid submission date
+     */
+    static Date parseBidDate(String bidDate, Date fallback) {
+        if (bidDate == null) {
+            return fallback;
+        }
+        try {
+            return Date.from(Instant.parse(bidDate));
+        } catch (DateTimeParseException e) {
+            return fallback;
+        }
+    }
+}
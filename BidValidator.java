@@ -1,12 +1,8 @@
 package cone.customer.api.auctionservice.services.bidhandlingservices;
 
-import com.connect1.coreusercontext.UserContext;
 import cone.customer.api.auctionservice.customexceptions.*;
 import cone.customer.api.auctionservice.entity.*;
-import cone.customer.api.auctionservice.helper.SpringEnvironmentHelper;
 import cone.customer.api.auctionservice.model.LiveBidModel;
-import cone.customer.api.auctionservice.repository.*;
-import cone.customer.api.auctionservice.services.SettingsService;
 import cone.customer.utils.models.CommonResponseModel;
 import cone.customer.utils.shared.Utils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,7 +11,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
-import java.util.Date;
 import java.util.Optional;
 
 @Component
@@ -25,74 +20,91 @@ public class BidValidator {
     BidAsyncServices bidAsyncServices;
 
     @Autowired
-    SettingsService settingsService;
+    BidSettingsCache bidSettingsCache;
 
     @Autowired
-    StockRepository stockRepository;
+    LiveOrderBook liveOrderBook;
 
     @Autowired
-    MvtLaBuyersDAO mvtLaBuyersDAO;
+    BuyerExposureLedger buyerExposureLedger;
 
     @Autowired
-    BidRepository bidRepository;
+    AuctionStateCache auctionStateCache;
 
     @Autowired
-    HighestBidRepository highestBidRepository;
+    BuyerProfileCache buyerProfileCache;
 
     @Autowired
-    StockItemRepository stockItemRepository;
-
-    @Autowired
-    CustomerMarginRepository customerMarginRepository;
+    MarginReservationEngine marginReservationEngine;
 
     /*
-     * This method validates the bid request and throws appropriate exception if any validation fails
+     * This method validates the bid request, recording the latency and outcome of every check on the given trace
      * @param isOnline - true if the bid is placed from online, false if the bid is placed from offline
      * @param bidModel - the bid request model with customerId, stockId, amount etc
-     * @param isAutobid - true if the bid is placed from autobid service, false if the bid is placed from live bid
-     * @return Stock - the stock entity for the given stock id
+     * @param stock - the stock entity for the given stock id
+     * @param context - the tenant and bidder of the bid, resolved once when the bid was received
+     * @param trace - the trace of the bid
      */
-    public ResponseEntity<CommonResponseModel> validate(Boolean isOnline, LiveBidModel bidModel, Boolean isAutobid, Stock stock) {
+    public ResponseEntity<CommonResponseModel> validate(Boolean isOnline, LiveBidModel bidModel, Stock stock, BidContext context, BidStageMetrics.BidTrace trace) {
+
+        String tenantId = context.getTenantId();
+        BidSettingsCache.Snapshot settings = bidSettingsCache.get(tenantId);
 
-        ResponseEntity<CommonResponseModel> responseModelResponseEntity = checkBidderIsNotSeller(bidModel, isAutobid, stock);
+        long stageStart = trace.start();
+        ResponseEntity<CommonResponseModel> responseModelResponseEntity = checkBidderIsNotSeller(bidModel, context, stock, settings);
+        trace.record("checkBidderIsNotSeller", responseModelResponseEntity == null ? Utils.BID_TYPE.AC : Utils.BID_TYPE.ER, stageStart);
         if (responseModelResponseEntity != null) {
             return responseModelResponseEntity;
         }
 
-        Optional<MvtLaBuyers> mvtLaBuyers = mvtLaBuyersDAO.findById(bidModel.getCustomerId());
+        stageStart = trace.start();
+        Optional<MvtLaBuyers> mvtLaBuyers = buyerProfileCache.buyer(tenantId, bidModel.getCustomerId());
+        trace.record("findBuyer", mvtLaBuyers.isPresent() ? Utils.BID_TYPE.AC : Utils.BID_TYPE.ER, stageStart);
         if (!mvtLaBuyers.isPresent()) {
             return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new CommonResponseModel(422, "Customer ID not found in records!! Please provide a valid customer ID"));
         }
         MvtLaBuyers buyer = mvtLaBuyers.get();
-        ResponseEntity<CommonResponseModel> checkedBuyerLimit= checkBuyerLimit(bidModel,buyer);
+        // the checks answer in the order of the original validator: buyer limit, margin, bid is higher, auction in progress
+        stageStart = trace.start();
+        ResponseEntity<CommonResponseModel> checkedBuyerLimit= checkBuyerLimit(bidModel, context, buyer, settings);
+        trace.record("checkBuyerLimit", checkedBuyerLimit == null ? Utils.BID_TYPE.AC : Utils.BID_TYPE.OL, stageStart);
         if (checkedBuyerLimit != null) {
             return checkedBuyerLimit;
         }
-        ResponseEntity<CommonResponseModel> checkedMargin=checkMargin(bidModel, isAutobid);
+        stageStart = trace.start();
+        ResponseEntity<CommonResponseModel> checkedMargin=checkMargin(bidModel, context, settings);
+        trace.record("checkMargin", checkedMargin == null ? Utils.BID_TYPE.AC : Utils.BID_TYPE.ER, stageStart);
         if (checkedMargin != null) {
             return checkedMargin;
         }
-        ResponseEntity<CommonResponseModel> checkedBidIsHigher=checkBidIsHigher(bidModel);
+        // from here on the margin is reserved, it is given back if a later check refuses the bid
+        ResponseEntity<CommonResponseModel> checkedBidIsHigher=checkBidIsHigher(bidModel, context, trace);
         if (checkedBidIsHigher != null) {
+            marginReservationEngine.abort(tenantId, bidModel.getStockId());
             return checkedBidIsHigher;
         }
-        ResponseEntity<CommonResponseModel> checkStockAuctionInProgressResponse = checkStockAuctionInProgress(bidModel.getStockId(),bidModel);
+        stageStart = trace.start();
+        ResponseEntity<CommonResponseModel> checkStockAuctionInProgressResponse = checkStockAuctionInProgress(context, bidModel.getStockId(),bidModel);
+        trace.record("checkStockAuctionInProgress", checkStockAuctionInProgressResponse == null ? Utils.BID_TYPE.AC : Utils.BID_TYPE.ER, stageStart);
         if(checkStockAuctionInProgressResponse != null){
+            marginReservationEngine.abort(tenantId, bidModel.getStockId());
             return checkStockAuctionInProgressResponse;
         }
+        // lets rejectLosingBid check the seller of this lot without the stock row
+        auctionStateCache.recordSeller(tenantId, bidModel.getStockId(), stock.getCustomerId());
         return null;
     }
 
     /*
-     * This method checks if auction is in progress for the given stock id by checking the stock status
+     * This method checks if auction is in progress for the given stock id by checking the cached auction state
      * if the stock status is not AuctionStarted or AuctionStopped, then the auction is not in progress
+     * @param context - the tenant and bidder of the bid
      * @param stockId - the stock id for which the auction is to be checked
      * @return void
      */
-    private ResponseEntity<CommonResponseModel> checkStockAuctionInProgress(Long stockId,LiveBidModel bidModel) {
-        String stockStatus = stockRepository.findStockStatusById(stockId);
-        if (!stockStatus.equalsIgnoreCase("AuctionStarted") && !stockStatus.equalsIgnoreCase("AuctionStopped")) {
-            bidAsyncServices.insertRejectBid(bidModel,Utils.BID_TYPE.ER,"Auction Ended");
+    private ResponseEntity<CommonResponseModel> checkStockAuctionInProgress(BidContext context, Long stockId,LiveBidModel bidModel) {
+        if (!auctionStateCache.get(context.getTenantId(), stockId).isRunning()) {
+            bidAsyncServices.insertRejectBid(bidModel, context.getTenantId(), Utils.BID_TYPE.ER,"Auction Ended");
             return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new CommonResponseModel(422, "This lot is not in running state, Admin must have closed the auction for this lot"));
         }
         return null;
@@ -102,25 +114,24 @@ public class BidValidator {
 
     /*
      * This method checks if buyer limit exceeds for the given customer id by checking the bid amount and quantity
-     * Then it checks if the bid amount is higher than the current highest bid
+     * against the value of the lots the buyer already holds today, as tracked by the BuyerExposureLedger
      * @param bidModel - the bid request model with customerId, stockId, amount etc
+     * @param context - the tenant and bidder of the bid
+     * @param settings - the cached bid settings of the tenant
      * @return void
      */
 
-    private ResponseEntity<CommonResponseModel> checkBuyerLimit(LiveBidModel bidModel,MvtLaBuyers mvtLaBuyers){
+    private ResponseEntity<CommonResponseModel> checkBuyerLimit(LiveBidModel bidModel, BidContext context, MvtLaBuyers mvtLaBuyers, BidSettingsCache.Snapshot settings){
 
-        Integer alreadyBidAmount = highestBidRepository.getAmountByCustomerIdAndCreatedAt(
-                bidModel.getCustomerId(), bidModel.getStockId(), new Date());
-        alreadyBidAmount = alreadyBidAmount == null ? 0 : alreadyBidAmount;
-
-        boolean buyerLimitAvailable;
-        if (settingsService.marginEnabled()) {
-            buyerLimitAvailable = true; // Skip buyer limit check if margin is enabled
-        } else {
-            buyerLimitAvailable = (mvtLaBuyers.getBidMaxAmount() - alreadyBidAmount) > (bidModel.getAmount() * bidModel.getQuantity());
+        if (settings.isMarginEnabled()) {
+            return null; // Skip buyer limit check if margin is enabled
         }
+
+        long alreadyBidAmount = buyerExposureLedger.exposure(context.getTenantId(), bidModel.getCustomerId());
+
+        boolean buyerLimitAvailable = (mvtLaBuyers.getBidMaxAmount() - alreadyBidAmount) > (bidModel.getAmount() * bidModel.getQuantity());
         if (!buyerLimitAvailable) {
-            bidAsyncServices.insertRejectBid(bidModel,Utils.BID_TYPE.OL,"Low Bid limit");
+            bidAsyncServices.insertRejectBid(bidModel, context.getTenantId(), Utils.BID_TYPE.OL,"Low Bid limit");
             return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new CommonResponseModel(102, "ERROR - Low Bid limit, please contact the Admin, your remaining buying limit is " +
                     (mvtLaBuyers.getBidMaxAmount() - alreadyBidAmount)));
 
@@ -128,28 +139,79 @@ public class BidValidator {
         return null;
     }
 
+    /*
+     * This method rejects a bid that cannot win (LB/SB) using only the state already held in memory.
+     * It runs before the bid enters its stock's lane and before any transaction or stock read, and only answers for lots
+     * known to be running whose seller is known, after the same seller, buyer and buyer limit checks as validate, so a
+     * bid is never answered LB/SB where validate would have answered otherwise. For the same reason it does not answer
+     * for tenants with margin enabled, validate checks the margin before the bid is higher.
+     * In every other case it returns null and the bid goes through full validation
+     * @param bidModel - the bid request model with customerId, stockId, amount etc
+     * @param context - the tenant and bidder of the bid
+     * @param trace - the trace the check is recorded on
+     * @return ResponseEntity - the LB/SB (or buyer limit) response, or null if the bid has to be fully validated
+     */
+    public ResponseEntity<CommonResponseModel> rejectLosingBid(LiveBidModel bidModel, BidContext context, BidStageMetrics.BidTrace trace) {
+        String tenantId = context.getTenantId();
+        Long sellerId = auctionStateCache.runningSeller(tenantId, bidModel.getStockId());
+        HighestBidSnapshot highestBid = liveOrderBook.peek(tenantId, bidModel.getStockId());
+        if (sellerId == null || highestBid == null) {
+            return null;
+        }
+        BidSettingsCache.Snapshot settings = bidSettingsCache.get(tenantId);
+        if (settings.isMarginEnabled() || (settings.isSellerBiddingBlocked() && sellerId.equals(context.getBidderId()))) {
+            return null;
+        }
+        Optional<MvtLaBuyers> mvtLaBuyers = buyerProfileCache.buyer(tenantId, bidModel.getCustomerId());
+        if (!mvtLaBuyers.isPresent()) {
+            return null;
+        }
+        long stageStart = trace.start();
+        ResponseEntity<CommonResponseModel> checkedBuyerLimit = checkBuyerLimit(bidModel, context, mvtLaBuyers.get(), settings);
+        if (checkedBuyerLimit != null) {
+            trace.record("checkBuyerLimit", Utils.BID_TYPE.OL, stageStart);
+            return checkedBuyerLimit;
+        }
+        return checkBidIsHigher(bidModel, context, highestBid, trace, "rejectLosingBid", stageStart);
+    }
+
     /*
      * This method checks if current highest bid is lower than or equal to the bid amount
+     * The current highest bid is read from the in-memory order book, not from the highest_bid table. It runs before the
+     * auction in progress check, so a lot that is not running is read without being loaded into the order book
      * @param bidModel - the bid request model with customerId, stockId, amount etc
+     * @param context - the tenant and bidder of the bid
+     * @param trace - the trace the check is recorded on with outcome LB, SB or AC
      * @return void
      */
-    private ResponseEntity<CommonResponseModel> checkBidIsHigher(LiveBidModel bidModel){
+    private ResponseEntity<CommonResponseModel> checkBidIsHigher(LiveBidModel bidModel, BidContext context, BidStageMetrics.BidTrace trace){
+        long stageStart = trace.start();
+        String tenantId = context.getTenantId();
+        HighestBidSnapshot prevHighestBid = auctionStateCache.get(tenantId, bidModel.getStockId()).isRunning()
+                ? liveOrderBook.get(tenantId, bidModel.getStockId()) : liveOrderBook.read(tenantId, bidModel.getStockId());
+        return checkBidIsHigher(bidModel, context, prevHighestBid, trace, "checkBidIsHigher", stageStart);
+    }
+
+    private ResponseEntity<CommonResponseModel> checkBidIsHigher(LiveBidModel bidModel, BidContext context, HighestBidSnapshot prevHighestBid,
+                                                                 BidStageMetrics.BidTrace trace, String stage, long stageStart){
         Long bidderId = bidModel.getCustomerId();
-        HighestBid prevHighestBid = highestBidRepository.getByStockId(bidModel.getStockId());
-        if (prevHighestBid != null) {
+        if (!prevHighestBid.isEmpty()) {
             if (prevHighestBid.getAmount() > bidModel.getAmount()) {
-                bidAsyncServices.insertRejectBid(bidModel,Utils.BID_TYPE.LB,"Low Bid");
+                bidAsyncServices.insertRejectBid(bidModel, context.getTenantId(), Utils.BID_TYPE.LB,"Low Bid");
+                trace.record(stage, Utils.BID_TYPE.LB, stageStart);
                 return ResponseEntity.status(HttpStatus.OK).body(new CommonResponseModel(200, "Bid placed successfully (LB)"));
 
                 //return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new CommonResponseModel(422, "Your bid must be higher than the current highest bid!"));
             } else if (prevHighestBid.getAmount().equals(bidModel.getAmount())) {
-                bidAsyncServices.insertRejectBid(bidModel,Utils.BID_TYPE.SB,"Same Bid");
+                bidAsyncServices.insertRejectBid(bidModel, context.getTenantId(), Utils.BID_TYPE.SB,"Same Bid");
+                trace.record(stage, Utils.BID_TYPE.SB, stageStart);
                 return ResponseEntity.status(HttpStatus.OK).body(new CommonResponseModel(200, "Bid placed successfully (SB)"));
 
                 //return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new CommonResponseModel(422, "Your bid must be higher than the current bid! Bidding the same amount is not allowed."));
-            } else if (prevHighestBid.getCustomerId().equals(bidderId)) {
+            } else if (bidderId.equals(prevHighestBid.getCustomerId())) {
 
-                bidAsyncServices.insertRejectBid(bidModel,Utils.BID_TYPE.SB,"Same Bid");
+                bidAsyncServices.insertRejectBid(bidModel, context.getTenantId(), Utils.BID_TYPE.SB,"Same Bid");
+                trace.record(stage, Utils.BID_TYPE.SB, stageStart);
 
                 return ResponseEntity.status(HttpStatus.OK).body(new CommonResponseModel(200, "Bid placed successfully (SB)"));
 
@@ -157,32 +219,25 @@ public class BidValidator {
 
             }
         }
+        trace.record(stage, Utils.BID_TYPE.AC, stageStart);
         return null;
     }
 
     /*
      * This method checks if the bidder is not the seller of the stock
      * @param bidModel - the bid request model with customerId, stockId, amount etc
-     * @param isAutobid - true if the bid is placed from autobid service, false if the bid is placed from live bid
+     * @param context - the tenant and bidder of the bid
      * @param stock - the stock entity for the given stock id
+     * @param settings - the cached bid settings of the tenant
      * @return void
      */
-    private ResponseEntity<CommonResponseModel> checkBidderIsNotSeller(LiveBidModel bidModel, Boolean isAutobid, Stock stock){
+    private ResponseEntity<CommonResponseModel> checkBidderIsNotSeller(LiveBidModel bidModel, BidContext context, Stock stock, BidSettingsCache.Snapshot settings){
 
-        String allow_seller_biddding_yn = settingsService.getByKeyName1("allow_seller_biddding_yn");
-
-        if(allow_seller_biddding_yn.equalsIgnoreCase("N")){
+        if(settings.isSellerBiddingBlocked()){
             Long sellerId = stock.getCustomerId();
-            Long bidderId = 0L;
-
-            if (isAutobid || SpringEnvironmentHelper.isLocalEnvironment()) {
-                bidderId = bidModel.getCustomerId();
-            } else {
-                bidderId = Long.valueOf(UserContext.getCustomerId());
-            }
 
-            if (sellerId.equals(bidderId)) {
-                bidAsyncServices.insertRejectBid(bidModel,Utils.BID_TYPE.ER,"Seller of Stock");
+            if (sellerId.equals(context.getBidderId())) {
+                bidAsyncServices.insertRejectBid(bidModel, context.getTenantId(), Utils.BID_TYPE.ER,"Seller of Stock");
                 return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new CommonResponseModel(422, "You are the seller of this stock -" + stock.getId()));
             }
         }
@@ -191,37 +246,26 @@ public class BidValidator {
     }
 
     /*
-     * This method checks if the bidder has enough margin to place the bid
+     * This method checks if the bidder has enough margin to place the bid and reserves it in the MarginReservationEngine
      * @param bidModel - the bid request model with customerId, stockId, amount etc
-     * @param isAutobid - true if the bid is placed from autobid service, false if the bid is placed from live bid
+     * @param context - the tenant and bidder of the bid
+     * @param settings - the cached bid settings of the tenant
      */
-    private ResponseEntity<CommonResponseModel> checkMargin(LiveBidModel bidModel, Boolean isAutobid)  {
-        if (settingsService.marginEnabled()) {
-            Long bidderId;
-            if(!SpringEnvironmentHelper.isLocalEnvironment()){
-                 bidderId = isAutobid ? bidModel.getCustomerId() : Long.valueOf(UserContext.getCustomerId());
-            }else {
-                 bidderId =  bidModel.getCustomerId();
-            }
+    private ResponseEntity<CommonResponseModel> checkMargin(LiveBidModel bidModel, BidContext context, BidSettingsCache.Snapshot settings)  {
+        if (settings.isMarginEnabled()) {
+            MarginReservationEngine.MarginCheck marginCheck = marginReservationEngine.tryReserve(
+                    context.getTenantId(), context.getBidderId(), bidModel.getStockId(), bidModel.getAmount(), settings.getMarginPercentage());
 
-            Optional<StockItem> optionalStockItem = stockItemRepository.findByStockId(bidModel.getStockId());
-            Optional<CustomerMargin> optionalCustomerMargin = customerMarginRepository.findById(Math.toIntExact(bidderId));
-
-            if (optionalStockItem.isPresent() && optionalCustomerMargin.isPresent()) {
-                Double availableMargin = optionalCustomerMargin.get().getCurrentMargin();
-                Double marginPecentage = settingsService.marginPercentage();
-                Double totalMarginRequired = (bidModel.getAmount() * optionalStockItem.get().getQuantity()) * (marginPecentage / 100);
-
-                if (availableMargin < totalMarginRequired) {
-                    bidAsyncServices.insertRejectBid(bidModel,Utils.BID_TYPE.ER,"Low Margin");
-                    return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new CommonResponseModel(422, "Your total margin available is " + availableMargin + " & you bid requires a margin of " + totalMarginRequired + ". The difference is " + (totalMarginRequired - availableMargin)));
-                }
-            } else {
-                bidAsyncServices.insertRejectBid(bidModel,Utils.BID_TYPE.ER,"Stock item/Customer Margin not found.");
+            if (!marginCheck.isFound()) {
+                bidAsyncServices.insertRejectBid(bidModel, context.getTenantId(), Utils.BID_TYPE.ER,"Stock item/Customer Margin not found.");
                 return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new CommonResponseModel(422, "Stock item or customer margin information not found."));
             }
-        } else {
-            return null;
+            if (!marginCheck.isReserved()) {
+                Double availableMargin = marginCheck.getAvailableMargin();
+                Double totalMarginRequired = marginCheck.getRequiredMargin();
+                bidAsyncServices.insertRejectBid(bidModel, context.getTenantId(), Utils.BID_TYPE.ER,"Low Margin");
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new CommonResponseModel(422, "Your total margin available is " + availableMargin + " & you bid requires a margin of " + totalMarginRequired + ". The difference is " + (totalMarginRequired - availableMargin)));
+            }
         }
         return null;
     }
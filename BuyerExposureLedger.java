@@ -0,0 +1,227 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Running total per buyer of each tenant of the value (amount * quantity) of the lots the buyer currently holds today.
+ * A buyer's total is seeded once per day with the sum of the buyer's highest bids created today, then kept up to date
+ * by transfer whenever a lot moves between buyers, so BidValidator.checkBuyerLimit reads a single counter.
+ * Totals that have not moved for reconcileIntervalMs are periodically re-read from the database to correct drift, with
+ * the buyer's tenant set on the reconciler thread (TenantScope). Every change of a buyer's total is made inside a
+ * compute on the buyer's entry, so a transfer and a reconcile of the same buyer never interleave.
+ * Note the limit this backs covers all the lots the buyer holds today, whatever the stock, valued amount * quantity as
+ * the bid being checked is. The check used to read the buyer's highest bid amount on the bid's own stock only
+ * (HighestBidRepository.getAmountByCustomerIdAndCreatedAt), so a buyer spread over several lots is now refused
+ * earlier than before.
+ */
+@Slf4j
+@Component
+public class BuyerExposureLedger {
+
+    private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final String DAILY_TOTAL_QUERY = "select coalesce(sum(h.amount * h.quantity), 0) from HighestBid h"
+            + " where h.customerId = :customerId and h.createdAt >= :from and h.createdAt < :to";
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Value("${bid.exposure.reconcile-interval-ms:60000}")
+    private long reconcileIntervalMs;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Long, Exposure>> exposures = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reconciler;
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("exposure-reconcile-");
+        threadFactory.setDaemon(true);
+        reconciler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        reconciler.scheduleWithFixedDelay(this::reconcile, reconcileIntervalMs, reconcileIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        reconciler.shutdownNow();
+    }
+
+    /*
+     * This method returns the value of the lots the buyer holds today
+     * @param tenantId - the tenant of the buyer
+     * @param customerId - the buyer
+     * @return long - the buyer's current exposure
+     */
+    public long exposure(String tenantId, Long customerId) {
+        return current(tenantId, customerId).total.get();
+    }
+
+    /*
+     * This method moves a lot from its previous holder to its new holder, crediting the outbid buyer and debiting the new one
+     * @param tenantId - the tenant of the stock
+     * @param from - the highest bid that was replaced
+     * @param to - the new highest bid
+     */
+    public void transfer(String tenantId, HighestBidSnapshot from, HighestBidSnapshot to) {
+        long now = System.currentTimeMillis();
+        long today = today(now);
+        ConcurrentHashMap<Long, Exposure> tenantExposures = exposures(tenantId);
+        if (!from.isEmpty() && from.getCustomerId() != null) {
+            // an outbid buyer that is not tracked yet is seeded with the lot already released
+            tenantExposures.computeIfPresent(from.getCustomerId(), (customerId, outbid) -> {
+                if (outbid.day == today) {
+                    outbid.total.accumulateAndGet(-valueOf(from), (current, delta) -> Math.max(0, current + delta));
+                    outbid.lastMovedAt = now;
+                }
+                return outbid;
+            });
+        }
+        if (!to.isEmpty() && to.getCustomerId() != null) {
+            Exposure seeded = current(tenantId, to.getCustomerId());
+            tenantExposures.compute(to.getCustomerId(), (customerId, holder) -> {
+                Exposure exposure = holder != null && holder.day == today ? holder : seeded;
+                exposure.total.addAndGet(valueOf(to));
+                exposure.lastMovedAt = now;
+                return exposure;
+            });
+        }
+    }
+
+    public void evict(String tenantId, Long customerId) {
+        exposures(tenantId).remove(customerId);
+    }
+
+    /*
+     * This method returns a copy of the tracked totals per tenant, used by the AuctionStateSnapshotter
+     */
+    Map<String, Map<Long, Exposure>> exposures() {
+        Map<String, Map<Long, Exposure>> copy = new HashMap<>();
+        exposures.forEach((tenantId, tenantExposures) -> {
+            if (!tenantExposures.isEmpty()) {
+                copy.put(tenantId, new HashMap<>(tenantExposures));
+            }
+        });
+        return copy;
+    }
+
+    /*
+     * This method restores a buyer's total from a snapshot if it is of today, it is re-read from the database by the next
+     * reconcile once it has been stable for a full interval
+     */
+    void install(String tenantId, Long customerId, long day, long total) {
+        long now = System.currentTimeMillis();
+        if (day == today(now)) {
+            exposures(tenantId).putIfAbsent(customerId, new Exposure(day, total, now));
+        }
+    }
+
+    private ConcurrentHashMap<Long, Exposure> exposures(String tenantId) {
+        return exposures.computeIfAbsent(tenantId, id -> new ConcurrentHashMap<>());
+    }
+
+    private Exposure current(String tenantId, Long customerId) {
+        long now = System.currentTimeMillis();
+        long today = today(now);
+        ConcurrentHashMap<Long, Exposure> tenantExposures = exposures(tenantId);
+        Exposure exposure = tenantExposures.get(customerId);
+        if (exposure != null && exposure.day == today) {
+            return exposure;
+        }
+        // the total is read outside the map, a total of today installed by another thread meanwhile wins
+        Exposure loaded = new Exposure(today, load(tenantId, customerId, today), now);
+        return tenantExposures.compute(customerId, (id, installed) -> installed != null && installed.day == today ? installed : loaded);
+    }
+
+    /*
+     * This method reads the value of the highest bids the buyer holds that were created on the given day, whatever the stock
+     * @param tenantId - the tenant of the buyer, its database is queried
+     * @param customerId - the buyer
+     * @param day - the day, as returned by today
+     * @return long - the buyer's total for the day
+     */
+    private long load(String tenantId, Long customerId, long day) {
+        long from = day * MILLIS_PER_DAY;
+        Date start = new Date(from - TimeZone.getDefault().getOffset(from));
+        Date end = new Date(start.getTime() + MILLIS_PER_DAY);
+        Number total = TenantScope.call(tenantId, () -> entityManager.createQuery(DAILY_TOTAL_QUERY, Number.class)
+                .setParameter("customerId", customerId)
+                .setParameter("from", start)
+                .setParameter("to", end)
+                .getSingleResult());
+        return total == null ? 0 : total.longValue();
+    }
+
+    /*
+     * This method re-reads the totals that have been stable for a full interval, by then the order book write-behind has
+     * flushed the moves into highest_bid, and drops totals of previous days
+     */
+    void reconcile() {
+        long now = System.currentTimeMillis();
+        long today = today(now);
+        exposures.forEach((tenantId, tenantExposures) -> tenantExposures.forEach((customerId, exposure) -> {
+            if (exposure.day != today) {
+                tenantExposures.remove(customerId, exposure);
+            } else if (now - exposure.lastMovedAt > reconcileIntervalMs) {
+                try {
+                    long total = load(tenantId, customerId, today);
+                    // a transfer made while the total was read moved lastMovedAt past now, the read total is stale then
+                    tenantExposures.computeIfPresent(customerId, (id, tracked) -> {
+                        if (tracked == exposure && now - tracked.lastMovedAt > reconcileIntervalMs) {
+                            tracked.total.set(total);
+                        }
+                        return tracked;
+                    });
+                } catch (Exception e) {
+                    log.error("Reconciling exposure of customer " + customerId + " of tenant " + tenantId + " failed with error: " + e.getMessage());
+                }
+            }
+        }));
+    }
+
+    private static long valueOf(HighestBidSnapshot highestBid) {
+        long quantity = highestBid.getQuantity() == null ? 1 : highestBid.getQuantity();
+        return highestBid.getAmount() * quantity;
+    }
+
+    private static long today(long now) {
+        return (now + TimeZone.getDefault().getOffset(now)) / MILLIS_PER_DAY;
+    }
+
+    static final class Exposure {
+
+        private final long day;
+        private final AtomicLong total;
+        private volatile long lastMovedAt;
+
+        private Exposure(long day, long total, long loadedAt) {
+            this.day = day;
+            this.total = new AtomicLong(total);
+            this.lastMovedAt = loadedAt;
+        }
+
+        long getDay() {
+            return day;
+        }
+
+        long getTotal() {
+            return total.get();
+        }
+    }
+}
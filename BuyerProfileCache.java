@@ -0,0 +1,231 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.entity.Customer;
+import cone.customer.api.auctionservice.entity.MvtLaBuyers;
+import cone.customer.api.auctionservice.repository.CustomerRepository;
+import cone.customer.api.auctionservice.repository.MvtLaBuyersDAO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/*
+ * Bounded per-tenant cache of the buyer data read on the bid path: the MvtLaBuyers row (bid limit) used by BidValidator
+ * and the "name (vendor)" display name used by the admin bid feed.
+ * Each tenant keeps at most maxEntries buyers per cache, least recently used first out, and entries are reloaded after ttlMs.
+ * The cache is warmed in the background with the tenant's registered buyers (MvtLaBuyers) when an auction starts, at
+ * most once per ttlMs per tenant, and the BidCacheInvalidator evicts a buyer an admin edits. The loaders run with the
+ * tenant set on the thread (TenantScope). Hits and misses are counted as bid.buyer.cache{cache, result}.
+ */
+@Slf4j
+@Component
+public class BuyerProfileCache {
+
+    @Autowired
+    MvtLaBuyersDAO mvtLaBuyersDAO;
+
+    @Autowired
+    CustomerRepository customerRepository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Value("${bid.buyer-cache.max-entries:20000}")
+    private int maxEntries;
+
+    @Value("${bid.buyer-cache.ttl-ms:600000}")
+    private long ttlMs;
+
+    private final ConcurrentHashMap<String, Map<Long, Entry<MvtLaBuyers>>> buyers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Map<Long, Entry<String>>> displayNames = new ConcurrentHashMap<>();
+
+    private Counter buyerHits;
+    private Counter buyerMisses;
+    private Counter nameHits;
+    private Counter nameMisses;
+
+    // when each tenant was last warmed
+    private final ConcurrentHashMap<String, Long> warmedAt = new ConcurrentHashMap<>();
+
+    private ExecutorService warmer;
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("buyer-cache-warm-");
+        threadFactory.setDaemon(true);
+        warmer = Executors.newSingleThreadExecutor(threadFactory);
+        buyerHits = meterRegistry.counter("bid.buyer.cache", "cache", "buyer", "result", "hit");
+        buyerMisses = meterRegistry.counter("bid.buyer.cache", "cache", "buyer", "result", "miss");
+        nameHits = meterRegistry.counter("bid.buyer.cache", "cache", "displayName", "result", "hit");
+        nameMisses = meterRegistry.counter("bid.buyer.cache", "cache", "displayName", "result", "miss");
+    }
+
+    @PreDestroy
+    public void stop() {
+        warmer.shutdownNow();
+    }
+
+    /*
+     * This method returns the MvtLaBuyers row of the given buyer
+     * @param tenantId - the tenant of the bid
+     * @param customerId - the buyer
+     * @return Optional<MvtLaBuyers> - the buyer, empty if the customer is not a registered buyer
+     */
+    public Optional<MvtLaBuyers> buyer(String tenantId, Long customerId) {
+        MvtLaBuyers buyer = lookup(buyers, tenantId, customerId,
+                id -> TenantScope.call(tenantId, () -> mvtLaBuyersDAO.findById(id).orElse(null)), buyerHits, buyerMisses);
+        return Optional.ofNullable(buyer);
+    }
+
+    /*
+     * This method returns the "name (vendor)" display name of the given customer
+     * @param tenantId - the tenant of the bid
+     * @param customerId - the customer
+     * @return String - the display name, null if the customer does not exist
+     */
+    public String displayName(String tenantId, Long customerId) {
+        return lookup(displayNames, tenantId, customerId, id -> TenantScope.call(tenantId, () -> loadDisplayName(id)), nameHits, nameMisses);
+    }
+
+    /*
+     * This method loads the tenant's registered buyers ahead of their first bid, in the background. It is called by the
+     * AuctionStateCache when an auction starts and does nothing if the tenant was warmed less than ttlMs ago, so the lots
+     * started together warm the tenant once
+     * @param tenantId - the tenant of the auction
+     */
+    public void warm(String tenantId) {
+        long now = System.currentTimeMillis();
+        Long last = warmedAt.get(tenantId);
+        if (last != null && now - last <= ttlMs) {
+            return;
+        }
+        // only the thread that moves the tenant's warm time forward warms it
+        boolean claimed = last == null ? warmedAt.putIfAbsent(tenantId, now) == null : warmedAt.replace(tenantId, last, now);
+        if (!claimed) {
+            return;
+        }
+        warmer.execute(() -> {
+            try {
+                TenantScope.run(tenantId, () -> load(tenantId));
+            } catch (Exception e) {
+                log.error("Warming the buyer cache of tenant " + tenantId + " failed with error: " + e.getMessage());
+            }
+        });
+    }
+
+    private void load(String tenantId) {
+        List<Long> customerIds = new ArrayList<>();
+        for (MvtLaBuyers buyer : mvtLaBuyersDAO.findAll()) {
+            if (customerIds.size() >= maxEntries) {
+                break;
+            }
+            Long customerId = idOf(buyer);
+            customerIds.add(customerId);
+            put(buyers, tenantId, customerId, buyer);
+        }
+        for (Customer customer : customerRepository.findAllById(customerIds)) {
+            put(displayNames, tenantId, idOf(customer), displayName(customer));
+        }
+    }
+
+    /*
+     * This method returns the customer id of a MvtLaBuyers or Customer entity, both are keyed by it
+     */
+    Long idOf(Object entity) {
+        return ((Number) entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity)).longValue();
+    }
+
+    /*
+     * This method drops a buyer from both caches, it is called when an admin edits the buyer's limit or name
+     * @param tenantId - the tenant of the buyer
+     * @param customerId - the buyer
+     */
+    public void evict(String tenantId, Long customerId) {
+        remove(buyers, tenantId, customerId);
+        remove(displayNames, tenantId, customerId);
+    }
+
+    private String loadDisplayName(Long customerId) {
+        Optional<Customer> customer = customerRepository.findById(customerId);
+        return customer.map(BuyerProfileCache::displayName).orElse(null);
+    }
+
+    private static String displayName(Customer customer) {
+        return customer.getUName() + " (" + customer.getUVendorName() + ")";
+    }
+
+    private <V> V lookup(ConcurrentHashMap<String, Map<Long, Entry<V>>> cache, String tenantId, Long customerId,
+                         Function<Long, V> loader, Counter hits, Counter misses) {
+        Map<Long, Entry<V>> entries = tenant(cache, tenantId);
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(customerId);
+        }
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt <= ttlMs) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        V value = loader.apply(customerId);
+        if (value != null) {
+            put(cache, tenantId, customerId, value);
+        } else {
+            remove(cache, tenantId, customerId);
+        }
+        return value;
+    }
+
+    private <V> void put(ConcurrentHashMap<String, Map<Long, Entry<V>>> cache, String tenantId, Long customerId, V value) {
+        Map<Long, Entry<V>> entries = tenant(cache, tenantId);
+        synchronized (entries) {
+            entries.put(customerId, new Entry<>(value, System.currentTimeMillis()));
+        }
+    }
+
+    private <V> void remove(ConcurrentHashMap<String, Map<Long, Entry<V>>> cache, String tenantId, Long customerId) {
+        Map<Long, Entry<V>> entries = tenant(cache, tenantId);
+        synchronized (entries) {
+            entries.remove(customerId);
+        }
+    }
+
+    private <V> Map<Long, Entry<V>> tenant(ConcurrentHashMap<String, Map<Long, Entry<V>>> cache, String tenantId) {
+        return cache.computeIfAbsent(tenantId, t -> new LinkedHashMap<Long, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long loadedAt;
+
+        private Entry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
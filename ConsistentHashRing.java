@@ -0,0 +1,55 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Immutable consistent-hash ring of cluster nodes. Every node is placed on the ring virtualNodes times, a (tenantId, stockId)
+ * key belongs to the first node clockwise from its hash. A node joining or leaving moves only the keys next to its points.
+ */
+final class ConsistentHashRing {
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    ConsistentHashRing(Collection<String> nodeIds, int virtualNodes) {
+        for (String nodeId : nodeIds) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(nodeId + "#" + i), nodeId);
+            }
+        }
+    }
+
+    /*
+     * This method returns the node owning the given stock of the given tenant
+     * @return String - the node id, null if the ring is empty
+     */
+    String owner(String tenantId, Long stockId) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        long hash = mix(hash(tenantId) * 31 + stockId);
+        Map.Entry<Long, String> point = points.ceilingEntry(hash);
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    private static long hash(String value) {
+        // FNV-1a over the UTF-8 bytes, every node computes the same ring from the same members
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : String.valueOf(value).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
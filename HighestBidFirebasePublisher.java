@@ -0,0 +1,107 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.google.firebase.database.FirebaseDatabase;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Publishes highest bids to the live_auction and live_cust firebase nodes with latest-value-wins semantics.
+ * Only the newest highest bid per stock is kept; every flushIntervalMs all pending stocks of all tenants are written
+ * with one multi-path update. A value is only dropped once it was written or replaced by a newer one,
+ * so the final highest bid of every stock is always delivered.
+ */
+@Slf4j
+@Component
+public class HighestBidFirebasePublisher {
+
+    private static final String LIVE_CUST = "/1/highest_bids/";
+    private static final String LIVE_AUCTION = "/live_auction/1";
+
+    @Value("${firebase.highest-bid.flush-interval-ms:100}")
+    private long flushIntervalMs;
+
+    @Value("${firebase.highest-bid.write-timeout-ms:5000}")
+    private long writeTimeoutMs;
+
+    private final ConcurrentHashMap<String, PendingHighestBid> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("firebase-highest-bid-");
+        threadFactory.setDaemon(true);
+        flusher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        flush();
+    }
+
+    /*
+     * This method records the new highest bid of a stock, replacing any value of the stock that was not written yet
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @param customerId - the highest bidder
+     * @param amount - the highest bid amount
+     */
+    public void publish(String tenantId, Long stockId, Long customerId, Integer amount) {
+        pending.put(tenantId + "/" + stockId, new PendingHighestBid(tenantId, stockId, customerId, amount));
+    }
+
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, PendingHighestBid> batch = new HashMap<>(pending);
+        Map<String, Object> updates = new HashMap<>(batch.size() * 8);
+        for (PendingHighestBid highestBid : batch.values()) {
+            String liveAuctionNode = highestBid.tenantId + LIVE_AUCTION + "/highest_bids/" + highestBid.stockId;
+            String liveCustNode = "live_cust/" + highestBid.tenantId + LIVE_CUST + highestBid.stockId;
+            updates.put(liveAuctionNode + "/customer_id", highestBid.customerId);
+            updates.put(liveAuctionNode + "/highest_bid", highestBid.amount);
+            updates.put(liveCustNode + "/customer_id", highestBid.customerId);
+            updates.put(liveCustNode + "/highest_bid", highestBid.amount);
+        }
+        try {
+            FirebaseDatabase.getInstance().getReference().updateChildrenAsync(updates).get(writeTimeoutMs, TimeUnit.MILLISECONDS);
+            // keep values that were replaced while the write was in flight, they go out with the next flush
+            batch.forEach(pending::remove);
+            log.debug("Published highest bids of {} stocks to Firebase", batch.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Publishing highest bids of " + batch.size() + " stocks to Firebase failed with error: " + e.getMessage());
+        }
+    }
+
+    private static final class PendingHighestBid {
+
+        private final String tenantId;
+        private final Long stockId;
+        private final Long customerId;
+        private final Integer amount;
+
+        private PendingHighestBid(String tenantId, Long stockId, Long customerId, Integer amount) {
+            this.tenantId = tenantId;
+            this.stockId = stockId;
+            this.customerId = customerId;
+            this.amount = amount;
+        }
+    }
+}
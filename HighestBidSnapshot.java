@@ -0,0 +1,48 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.entity.HighestBid;
+
+/*
+ * Immutable view of the current highest bid of a live stock as held by the LiveOrderBook.
+ * A new instance is created for every accepted bid, so readers never see a half-updated holder/amount pair.
+ */
+public final class HighestBidSnapshot {
+
+    static final HighestBidSnapshot EMPTY = new HighestBidSnapshot(null, null, null);
+
+    private final Integer amount;
+    private final Long customerId;
+    private final Integer quantity;
+
+    HighestBidSnapshot(Integer amount, Long customerId, Integer quantity) {
+        this.amount = amount;
+        this.customerId = customerId;
+        this.quantity = quantity;
+    }
+
+    static HighestBidSnapshot of(HighestBid highestBid) {
+        if (highestBid == null || highestBid.getAmount() == null) {
+            return EMPTY;
+        }
+        return new HighestBidSnapshot(highestBid.getAmount(), highestBid.getCustomerId(), highestBid.getQuantity());
+    }
+
+    public Integer getAmount() {
+        return amount;
+    }
+
+    public Long getCustomerId() {
+        return customerId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    /*
+     * true if nobody has bid on the stock yet
+     */
+    public boolean isEmpty() {
+        return amount == null;
+    }
+}
@@ -0,0 +1,73 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cone.customer.api.auctionservice.customexceptions.BidProcessingFailedException;
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.utils.models.CommonResponseModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+
+/*
+ * Forwards a bid over HTTP to the internal bid endpoint (InternalBidController at forwardPath) of the owning node, whose
+ * base URL is taken from the cluster members of the BidRouter. The tenant, the bidder and the bid token travel in a
+ * token signed by the BidForwardingSigner, the receiving endpoint verifies it and calls LiveBidServicesV3.initLocal.
+ */
+@Component
+public class HttpBidForwarder implements BidForwarder {
+
+    @Autowired
+    BidRouter bidRouter;
+
+    @Autowired
+    BidForwardingSigner bidForwardingSigner;
+
+    @Autowired
+    RestTemplateBuilder restTemplateBuilder;
+
+    @Value("${bid.cluster.forward-path:/internal/live-bids}")
+    private String forwardPath;
+
+    @Value("${bid.cluster.forward-timeout-ms:5000}")
+    private long forwardTimeoutMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private RestTemplate restTemplate;
+
+    @PostConstruct
+    public void start() {
+        restTemplate = restTemplateBuilder
+                .setConnectTimeout(Duration.ofMillis(forwardTimeoutMs))
+                .setReadTimeout(Duration.ofMillis(forwardTimeoutMs))
+                .build();
+    }
+
+    @Override
+    public ResponseEntity<CommonResponseModel> forward(String nodeId, BidContext context, LiveBidModel bidModel, String bidToken) throws Exception {
+        String baseUrl = bidRouter.memberUrl(nodeId);
+        if (baseUrl == null) {
+            throw new BidProcessingFailedException("Unknown cluster node " + nodeId, null);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(BidForwardingSigner.TOKEN_HEADER, bidForwardingSigner.sign(context, bidModel, bidToken));
+        try {
+            return restTemplate.postForEntity(baseUrl + forwardPath, new HttpEntity<>(bidModel, headers), CommonResponseModel.class);
+        } catch (HttpStatusCodeException e) {
+            // 4xx/5xx carry the owner's CommonResponseModel, it is returned as is
+            return ResponseEntity.status(e.getStatusCode()).body(objectMapper.readValue(e.getResponseBodyAsString(), CommonResponseModel.class));
+        } catch (RestClientException e) {
+            throw new BidProcessingFailedException("Forwarding bid to node " + nodeId + " failed with error: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.customexceptions.BidProcessingFailedException;
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.utils.models.CommonResponseModel;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Forwards bids to LiveBidServicesV3 instances of the same JVM, so several cluster nodes can be run side by side on one
+ * machine (load tests, the benchmark fixtures). Not a bean, nodes are registered by whoever builds them.
+ */
+public class InProcessBidForwarder implements BidForwarder {
+
+    private final ConcurrentHashMap<String, LiveBidServicesV3> nodes = new ConcurrentHashMap<>();
+
+    public void register(String nodeId, LiveBidServicesV3 liveBidServices) {
+        nodes.put(nodeId, liveBidServices);
+    }
+
+    public void unregister(String nodeId) {
+        nodes.remove(nodeId);
+    }
+
+    @Override
+    public ResponseEntity<CommonResponseModel> forward(String nodeId, BidContext context, LiveBidModel bidModel, String bidToken) throws Exception {
+        LiveBidServicesV3 node = nodes.get(nodeId);
+        if (node == null) {
+            throw new BidProcessingFailedException("Unknown cluster node " + nodeId, null);
+        }
+        return node.initLocal(bidModel, context, bidToken);
+    }
+}
@@ -1,35 +1,25 @@
 package cone.customer.api.auctionservice.services.bidhandlingservices;
 
 
-import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
-import com.amazonaws.services.sqs.model.SendMessageRequest;
-import com.connect1.coreusercontext.UserContext;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import cone.customer.api.auctionservice.customexceptions.*;
 import cone.customer.api.auctionservice.entity.*;
-import cone.customer.api.auctionservice.eventpublishers.BidPlacedEventPublisher;
 import cone.customer.api.auctionservice.model.LiveBidModel;
-import cone.customer.api.auctionservice.monitoring.LogExecutionTime;
 import cone.customer.api.auctionservice.repository.*;
-import cone.customer.api.auctionservice.services.*;
 import cone.customer.utils.models.CommonResponseModel;
 import cone.customer.utils.shared.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
-import java.util.Date;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 
 @Service
@@ -47,26 +37,456 @@ public class LiveBidServicesV3 {
     @Autowired
     StockRepository stockRepository;
 
-    @Transactional
+    @Autowired
+    BidSequencer bidSequencer;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    MarginReservationEngine marginReservationEngine;
+
+    @Autowired
+    BidStageMetrics bidStageMetrics;
+
+    @Autowired
+    BidDeduplicator bidDeduplicator;
+
+    @Autowired
+    AutoBidEngine autoBidEngine;
+
+    @Autowired
+    LiveOrderBook liveOrderBook;
+
+    @Autowired
+    BidRouter bidRouter;
+
+    @Autowired
+    BidForwarder bidForwarder;
+
+    @Autowired
+    BidAdmissionController bidAdmissionController;
+
+    @Autowired
+    BidDeskAuthorizer bidDeskAuthorizer;
+
+    @Value("${bid.desk.max-batch-size:200}")
+    private int maxBatchSize;
+
+    // the executor @Async runs on, the user context of the request is available on its threads
+    @Autowired
+    @Qualifier("taskExecutor")
+    Executor taskExecutor;
+
+    /*
+     * This method places a bid, on the node owning the bid's stock when cluster mode is enabled
+     * @param bidModel - the bid request model with customerId, stockId, amount etc
+     * @param isAutobid - true if the bid is placed from autobid service, false if the bid is placed from live bid
+     * @param bidToken - the client bid token, the bid is placed without deduplication if null
+     */
+    public ResponseEntity<CommonResponseModel> init(LiveBidModel bidModel, Boolean isAutobid, String bidToken) throws Exception {
+        BidContext context = BidContext.resolve(bidModel, isAutobid);
+        String owner = bidRouter.remoteOwner(context.getTenantId(), bidModel.getStockId());
+        if (owner != null) {
+            return bidForwarder.forward(owner, context, bidModel, bidToken);
+        }
+        return initLocal(bidModel, context, bidToken);
+    }
+
     public ResponseEntity<CommonResponseModel> init(LiveBidModel bidModel, Boolean isAutobid) throws Exception {
+        return init(bidModel, isAutobid, null);
+    }
+
+    /*
+     * This method places a bid submitted with a client bid token on this node, the owner of its stock. A retry of a token
+     * already submitted for the stock gets the response of the original bid, without placing or recording the bid again.
+     * Forwarded bids are deduplicated here as well, so retries are caught whichever node they reach
+     * @param bidModel - the bid request model with customerId, stockId, amount etc
+     * @param context - the tenant and bidder of the bid
+     * @param bidToken - the client bid token, the bid is placed without deduplication if null
+     */
+    public ResponseEntity<CommonResponseModel> initLocal(LiveBidModel bidModel, BidContext context, String bidToken) throws Exception {
+        if (bidToken == null) {
+            return initLocal(bidModel, context);
+        }
+        String tenantId = context.getTenantId();
+        CompletableFuture<ResponseEntity<CommonResponseModel>> outcome = new CompletableFuture<>();
+        CompletableFuture<ResponseEntity<CommonResponseModel>> original = bidDeduplicator.claim(tenantId, bidModel.getStockId(), context.getBidderId(), bidToken, outcome);
+        if (original != null) {
+            log.debug("Duplicate bid token {} of customer {} on stock {}", bidToken, context.getBidderId(), bidModel.getStockId());
+            return bidDeduplicator.await(original);
+        }
         try {
-            Optional<Stock> optionalStock = stockRepository.findById(bidModel.getStockId());
-            if (optionalStock.isPresent()) {
-                Stock stock = optionalStock.get();
-                ResponseEntity<CommonResponseModel> validateResponse = bidValidator.validate(true, bidModel, isAutobid, stock);
-                if(validateResponse != null){
-                    return validateResponse;
-                }
-                Bid bid = bidProcessor.process(bidModel, stock);
-                return ResponseEntity.status(HttpStatus.OK).body(new CommonResponseModel(200, "Bid placed successfully with bidId: " + bid.getId()));
-            }else {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new CommonResponseModel(404, "Stock not found"));
+            ResponseEntity<CommonResponseModel> response = initLocal(bidModel, context);
+            // only a placed bid (or its LB/SB) is remembered, a retry of a shed (429) or refused bid is placed again
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                bidDeduplicator.release(tenantId, bidModel.getStockId(), context.getBidderId(), bidToken);
+            }
+            outcome.complete(response);
+            return response;
+        } catch (Exception e) {
+            bidDeduplicator.release(tenantId, bidModel.getStockId(), context.getBidderId(), bidToken);
+            outcome.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /*
+     * This method places a bid on this node. Bids that cannot beat the highest bid held in memory are rejected (LB/SB) straight away,
+     * without entering the lane, opening a transaction or touching a repository.
+     * The other bids of the same stock are validated and processed one at a time in the stock's lane,
+     * the transaction is only opened once the bid holds the lane so waiting bids do not hold database connections.
+     * When the lot or the tenant is overloaded the BidAdmissionController sheds the bids least likely to win with 429
+     * @param bidModel - the bid request model with customerId, stockId, amount etc
+     * @param context - the tenant and bidder of the bid
+     */
+    public ResponseEntity<CommonResponseModel> initLocal(LiveBidModel bidModel, BidContext context) throws Exception {
+        BidStageMetrics.BidTrace trace = bidStageMetrics.trace(context.getTenantId());
+        try {
+            ResponseEntity<CommonResponseModel> losingBidResponse = bidValidator.rejectLosingBid(bidModel, context, trace);
+            if (losingBidResponse != null) {
+                return losingBidResponse;
+            }
+            long admissionStart = trace.start();
+            // an autobid placed from inside a bid of the same stock runs on that bid's permit, it would otherwise wait on it
+            BidAdmissionController.Permit permit = bidSequencer.holdsLane(context.getTenantId(), bidModel.getStockId())
+                    ? BidAdmissionController.Permit.UNLIMITED : bidAdmissionController.admit(context.getTenantId(), bidModel);
+            trace.record("admission", permit == null ? Utils.BID_TYPE.ER : Utils.BID_TYPE.AC, admissionStart);
+            if (permit == null) {
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(new CommonResponseModel(429, "Too many bids on this lot, please retry"));
+            }
+            long laneStart = trace.start();
+            try {
+                ResponseEntity<CommonResponseModel> response = bidSequencer.execute(context.getTenantId(), bidModel.getStockId(), () -> {
+                    trace.record("awaitLane", laneStart);
+                    ResponseEntity<CommonResponseModel> placed = placeBidInTransaction(bidModel, context, trace);
+                    if (placed.getStatusCode() == HttpStatus.OK) {
+                        placeProxyBids(bidModel.getStockId(), bidModel.getQuantity(), context.getTenantId());
+                    }
+                    return placed;
+                });
+                permit.release(true);
+                return response;
+            } catch (Exception e) {
+                permit.release(false);
+                throw e;
             }
         }
         catch (Exception e) {
+            trace.fail();
             log.error("Exception occurred while placing bid: " + e.getMessage());
             throw e;
         }
+        finally {
+            trace.finish();
+        }
+    }
+
+    /*
+     * This method places the bids of a bidding desk across many lots at once. Bids for buyers the desk is not authorized for
+     * are refused with 403. The other bids are grouped by stock, the stocks of the batch are loaded once, and the groups
+     * are placed in parallel. Each group goes through the losing bid check and admission bid by bid and is then placed in
+     * its stock's lane, in submission order and in one transaction: if the transaction rolls back, every bid of the group
+     * it had accepted is answered with 500 and its effects on the order book and margins are undone
+     * @param bidModels - the bid request models with customerId, stockId, amount etc
+     * @param isAutobid - true if the bids are placed from autobid service, false if they are placed from live bid
+     * @return ResponseEntity<List<CommonResponseModel>> - one result per bid, in the order of bidModels
+     */
+    public ResponseEntity<List<CommonResponseModel>> initBatch(List<LiveBidModel> bidModels, Boolean isAutobid) {
+        if (bidModels.size() > maxBatchSize) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        CommonResponseModel[] results = new CommonResponseModel[bidModels.size()];
+        // resolved here, on the request thread, the groups are placed on executor threads
+        String tenantId = BidContext.currentTenantId();
+        Set<Long> customerIds = new HashSet<>();
+        bidModels.forEach(bidModel -> customerIds.add(bidModel.getCustomerId()));
+        Set<Long> authorized = bidDeskAuthorizer.authorizedBuyers(BidContext.currentCustomerId(), customerIds);
+
+        BidContext[] contexts = new BidContext[bidModels.size()];
+        Map<Long, List<Integer>> stockGroups = new LinkedHashMap<>();
+        for (int i = 0; i < bidModels.size(); i++) {
+            Long customerId = bidModels.get(i).getCustomerId();
+            if (!authorized.contains(customerId)) {
+                results[i] = new CommonResponseModel(403, "This desk is not allowed to bid for customer " + customerId);
+                continue;
+            }
+            // a desk bids for many buyers, each bid is placed for the customer of its bid model, not the logged in user
+            contexts[i] = BidContext.of(tenantId, customerId, Boolean.TRUE.equals(isAutobid));
+            stockGroups.computeIfAbsent(bidModels.get(i).getStockId(), stockId -> new ArrayList<>()).add(i);
+        }
+
+        Map<Long, Stock> stocks = new HashMap<>();
+        for (Stock stock : stockRepository.findAllById(stockGroups.keySet())) {
+            stocks.put(stock.getId(), stock);
+        }
+
+        List<CompletableFuture<Void>> groups = new ArrayList<>(stockGroups.size());
+        for (Map.Entry<Long, List<Integer>> group : stockGroups.entrySet()) {
+            Stock stock = stocks.get(group.getKey());
+            groups.add(CompletableFuture.runAsync(
+                    () -> placeGroup(group.getKey(), group.getValue(), bidModels, contexts, stock, results), taskExecutor));
+        }
+        CompletableFuture.allOf(groups.toArray(new CompletableFuture[0])).join();
+        return ResponseEntity.status(HttpStatus.OK).body(Arrays.asList(results));
+    }
+
+    private void placeGroup(Long stockId, List<Integer> indexes, List<LiveBidModel> bidModels, BidContext[] contexts, Stock stock,
+                            CommonResponseModel[] results) {
+        if (stock == null) {
+            for (Integer index : indexes) {
+                results[index] = new CommonResponseModel(404, "Stock not found");
+            }
+            return;
+        }
+        String tenantId = contexts[indexes.get(0)].getTenantId();
+        String owner = bidRouter.remoteOwner(tenantId, stockId);
+        if (owner != null) {
+            forwardGroup(owner, indexes, bidModels, contexts, results);
+            return;
+        }
+        Map<Integer, BidStageMetrics.BidTrace> traces = new LinkedHashMap<>();
+        Map<Integer, BidAdmissionController.Permit> permits = new LinkedHashMap<>();
+        try {
+            for (Integer index : indexes) {
+                BidStageMetrics.BidTrace trace = bidStageMetrics.trace(tenantId);
+                traces.put(index, trace);
+                ResponseEntity<CommonResponseModel> losingBidResponse = bidValidator.rejectLosingBid(bidModels.get(index), contexts[index], trace);
+                if (losingBidResponse != null) {
+                    results[index] = losingBidResponse.getBody();
+                    continue;
+                }
+                long admissionStart = trace.start();
+                BidAdmissionController.Permit permit = bidAdmissionController.admit(tenantId, bidModels.get(index));
+                trace.record("admission", permit == null ? Utils.BID_TYPE.ER : Utils.BID_TYPE.AC, admissionStart);
+                if (permit == null) {
+                    results[index] = new CommonResponseModel(429, "Too many bids on this lot, please retry");
+                } else {
+                    permits.put(index, permit);
+                }
+            }
+            if (!permits.isEmpty()) {
+                bidSequencer.execute(tenantId, stockId, () -> {
+                    inTransaction(() -> {
+                        for (Integer index : permits.keySet()) {
+                            results[index] = placeBatchBid(bidModels.get(index), contexts[index], stock, traces.get(index));
+                        }
+                        return null;
+                    });
+                    try {
+                        placeProxyBids(stockId, bidModels.get(indexes.get(0)).getQuantity(), tenantId);
+                    } catch (Exception e) {
+                        // the bids of the group are committed, a failed proxy war does not undo them
+                        log.error("Exception occurred while placing autobids on stock " + stockId + ": " + e.getMessage());
+                    }
+                    return null;
+                });
+            }
+            permits.values().forEach(permit -> permit.release(true));
+        } catch (Exception e) {
+            log.error("Exception occurred while placing batch bids on stock " + stockId + ": " + e.getMessage());
+            // the transaction of the group rolled back (or never ran), none of its bids is placed
+            permits.forEach((index, permit) -> {
+                permit.release(false);
+                traces.get(index).fail();
+                results[index] = new CommonResponseModel(500, "Bid could not be placed: " + e.getMessage());
+            });
+        } finally {
+            traces.values().forEach(BidStageMetrics.BidTrace::finish);
+        }
+    }
+
+    private void forwardGroup(String owner, List<Integer> indexes, List<LiveBidModel> bidModels, BidContext[] contexts,
+                              CommonResponseModel[] results) {
+        for (Integer index : indexes) {
+            try {
+                results[index] = bidForwarder.forward(owner, contexts[index], bidModels.get(index), null).getBody();
+            } catch (Exception e) {
+                log.error("Exception occurred while forwarding batch bid to node " + owner + ": " + e.getMessage());
+                results[index] = new CommonResponseModel(500, "Bid could not be placed: " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * This method places one bid of a desk group in the transaction of the group. A bid that fails with a checked exception
+     * (its insert failed, BidProcessor has already undone it) is answered with 500 and the group goes on, a runtime
+     * exception rolls back the whole group
+     */
+    private CommonResponseModel placeBatchBid(LiveBidModel bidModel, BidContext context, Stock stock, BidStageMetrics.BidTrace trace) {
+        try {
+            return placeBid(bidModel, context, stock, trace).getBody();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            trace.fail();
+            log.error("Exception occurred while placing batch bid on stock " + bidModel.getStockId() + ": " + e.getMessage());
+            return new CommonResponseModel(500, "Bid could not be placed: " + e.getMessage());
+        }
+    }
+
+    /*
+     * This method registers or replaces the autobid ceiling of a buyer on a stock and lets the proxy bid right away
+     * if it can beat the current highest bid
+     * @param stockId - the stock
+     * @param customerId - the buyer
+     * @param ceiling - the highest amount the proxy may bid
+     * @param increment - the amount the proxy outbids others by, the default increment if null
+     * @param quantity - the quantity of the proxy bids
+     */
+    public ResponseEntity<CommonResponseModel> registerAutoBid(Long stockId, Long customerId, Integer ceiling, Integer increment, Integer quantity) throws Exception {
+        String tenantId = BidContext.currentTenantId();
+        String owner = bidRouter.remoteOwner(tenantId, stockId);
+        if (owner != null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new CommonResponseModel(409, "Autobids of this lot are registered on node " + owner));
+        }
+        autoBidEngine.register(tenantId, stockId, customerId, ceiling, increment);
+        bidSequencer.execute(tenantId, stockId, () -> {
+            placeProxyBids(stockId, quantity, tenantId);
+            return null;
+        });
+        return ResponseEntity.status(HttpStatus.OK).body(new CommonResponseModel(200, "Autobid registered up to " + ceiling));
+    }
+
+    public ResponseEntity<CommonResponseModel> cancelAutoBid(Long stockId, Long customerId) {
+        String tenantId = BidContext.currentTenantId();
+        String owner = bidRouter.remoteOwner(tenantId, stockId);
+        if (owner != null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new CommonResponseModel(409, "Autobids of this lot are registered on node " + owner));
+        }
+        autoBidEngine.cancel(tenantId, stockId, customerId);
+        return ResponseEntity.status(HttpStatus.OK).body(new CommonResponseModel(200, "Autobid cancelled"));
+    }
+
+    /*
+     * This method places the proxy bids that settle the proxy war on a stock, called in the stock's lane after a bid.
+     * The whole chain of proxy bids is placed in one transaction. A proxy whose bid is rejected (buyer limit, margin etc)
+     * or fails to be recorded is cancelled and the war is resolved again without it, in the same transaction. If the
+     * transaction rolls back, the chain is undone and the bid that triggered it stands
+     * @param stockId - the stock
+     * @param quantity - the quantity of the proxy bids
+     * @param tenantId - the tenant of the stock
+     */
+    private void placeProxyBids(Long stockId, Integer quantity, String tenantId) {
+        if (!autoBidEngine.hasProxies(tenantId, stockId)) {
+            return;
+        }
+        try {
+            inTransaction(() -> {
+                List<AutoBidEngine.ProxyBid> proxyBids = autoBidEngine.resolve(tenantId, stockId, liveOrderBook.get(tenantId, stockId));
+                while (!proxyBids.isEmpty()) {
+                    AutoBidEngine.ProxyBid rejected = null;
+                    for (AutoBidEngine.ProxyBid proxyBid : proxyBids) {
+                        if (!placeProxyBid(stockId, quantity, tenantId, proxyBid)) {
+                            rejected = proxyBid;
+                            break;
+                        }
+                    }
+                    if (rejected == null) {
+                        break;
+                    }
+                    log.debug("Autobid of customer {} on stock {} was not placed, cancelling it", rejected.getCustomerId(), stockId);
+                    autoBidEngine.cancel(tenantId, stockId, rejected.getCustomerId());
+                    proxyBids = autoBidEngine.resolve(tenantId, stockId, liveOrderBook.get(tenantId, stockId));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // the bid that triggered the proxy war is already placed, only the chain is rolled back
+            log.error("Exception occurred while placing autobids on stock " + stockId + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * This method places one proxy bid of a chain in the chain's transaction
+     * @return boolean - true if the proxy bid became the highest bid, false if it was rejected or could not be recorded
+     */
+    private boolean placeProxyBid(Long stockId, Integer quantity, String tenantId, AutoBidEngine.ProxyBid proxyBid) {
+        LiveBidModel proxyBidModel = new LiveBidModel();
+        proxyBidModel.setStockId(stockId);
+        proxyBidModel.setCustomerId(proxyBid.getCustomerId());
+        proxyBidModel.setAmount(proxyBid.getAmount());
+        proxyBidModel.setQuantity(quantity);
+        proxyBidModel.setBidDate(Instant.now().toString());
+        BidStageMetrics.BidTrace trace = bidStageMetrics.trace(tenantId);
+        ResponseEntity<CommonResponseModel> response;
+        try {
+            response = placeBid(proxyBidModel, BidContext.of(tenantId, proxyBid.getCustomerId(), true), trace);
+        } catch (RuntimeException e) {
+            trace.fail();
+            throw e;
+        } catch (Exception e) {
+            // the insert failed and BidProcessor has undone the bid, the proxy is cancelled
+            trace.fail();
+            log.error("Exception occurred while placing autobid on stock " + stockId + ": " + e.getMessage());
+            response = null;
+        } finally {
+            trace.finish();
+        }
+        return isPlaced(response, tenantId, stockId, proxyBid);
+    }
+
+    /*
+     * This method checks that a proxy bid became the highest bid of its stock, LB and SB are answered with 200 as well
+     * @return boolean - true if the order book now holds the proxy bid
+     */
+    private boolean isPlaced(ResponseEntity<CommonResponseModel> response, String tenantId, Long stockId, AutoBidEngine.ProxyBid proxyBid) {
+        if (response == null || response.getStatusCode() != HttpStatus.OK) {
+            return false;
+        }
+        HighestBidSnapshot highestBid = liveOrderBook.get(tenantId, stockId);
+        return !highestBid.isEmpty() && proxyBid.getCustomerId().equals(highestBid.getCustomerId())
+                && proxyBid.getAmount().equals(highestBid.getAmount());
+    }
+
+    private ResponseEntity<CommonResponseModel> placeBidInTransaction(LiveBidModel bidModel, BidContext context, BidStageMetrics.BidTrace trace) throws Exception {
+        return inTransaction(() -> placeBid(bidModel, context, trace));
+    }
+
+    private ResponseEntity<CommonResponseModel> inTransaction(BidSequencer.BidTask<ResponseEntity<CommonResponseModel>> task) throws Exception {
+        Exception[] failure = new Exception[1];
+        ResponseEntity<CommonResponseModel> response = transactionTemplate.execute(status -> {
+            try {
+                return task.run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                // checked exceptions commit, same as the @Transactional default
+                failure[0] = e;
+                return null;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return response;
+    }
+
+    private ResponseEntity<CommonResponseModel> placeBid(LiveBidModel bidModel, BidContext context, BidStageMetrics.BidTrace trace) throws Exception {
+        long stageStart = trace.start();
+        Optional<Stock> optionalStock = stockRepository.findById(bidModel.getStockId());
+        trace.record("findStock", optionalStock.isPresent() ? Utils.BID_TYPE.AC : Utils.BID_TYPE.ER, stageStart);
+        if (optionalStock.isPresent()) {
+            return placeBid(bidModel, context, optionalStock.get(), trace);
+        }else {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new CommonResponseModel(404, "Stock not found"));
+        }
+    }
+
+    private ResponseEntity<CommonResponseModel> placeBid(LiveBidModel bidModel, BidContext context, Stock stock, BidStageMetrics.BidTrace trace) throws Exception {
+        ResponseEntity<CommonResponseModel> validateResponse = bidValidator.validate(true, bidModel, stock, context, trace);
+        if(validateResponse != null){
+            return validateResponse;
+        }
+        Bid bid;
+        try {
+            bid = bidProcessor.process(bidModel, stock, context, trace);
+        } catch (Exception e) {
+            // gives back the margin reserved by the validator if the bid was not recorded
+            marginReservationEngine.abort(context.getTenantId(), bidModel.getStockId());
+            throw e;
+        }
+        return ResponseEntity.status(HttpStatus.OK).body(new CommonResponseModel(200, "Bid placed successfully with bidId: " + bid.getId()));
     }
 
 
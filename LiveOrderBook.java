@@ -0,0 +1,273 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.entity.HighestBid;
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.api.auctionservice.repository.HighestBidRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Authoritative in-memory highest bid per live stock of each tenant.
+ * Entries are warmed from HighestBidRepository (at auction start or lazily on the first bid) and every accepted bid
+ * is written back to the tenant's highest_bid table asynchronously, so the bid path never waits on the database.
+ * Stock ids are only unique within a tenant's database, so every book is kept per tenant and the write-behind sets the
+ * tenant on the flusher thread (TenantScope) for the repositories to reach the tenant's database.
+ * The book is only authoritative while this node is the single node taking bids, see OrderBookLease.
+ */
+@Slf4j
+@Component
+public class LiveOrderBook {
+
+    @Autowired
+    HighestBidRepository highestBidRepository;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    OrderBookLease orderBookLease;
+
+    @Value("${bid.orderbook.flush-interval-ms:100}")
+    private long flushIntervalMs;
+
+    private final ConcurrentHashMap<String, TenantBook> tenants = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("orderbook-flush-");
+        threadFactory.setDaemon(true);
+        flusher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        flush();
+    }
+
+    /*
+     * This method returns the current highest bid of the given stock, loading it from the database on first access.
+     * AuctionStateCache calls it when an auction starts so that the first bids on the stock do not pay for the load.
+     * The load runs outside the map, a value put by a concurrent load or accept in the meantime wins
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @return HighestBidSnapshot - the current highest bid, HighestBidSnapshot.EMPTY if nobody has bid yet
+     */
+    public HighestBidSnapshot get(String tenantId, Long stockId) {
+        TenantBook book = book(tenantId);
+        HighestBidSnapshot snapshot = book.books.get(stockId);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        HighestBidSnapshot loaded = load(tenantId, book, stockId);
+        HighestBidSnapshot raced = book.books.putIfAbsent(stockId, loaded);
+        return raced != null ? raced : loaded;
+    }
+
+    /*
+     * This method returns the current highest bid of the given stock only if it is already held in memory
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @return HighestBidSnapshot - the current highest bid or null if the stock has not been warmed
+     */
+    public HighestBidSnapshot peek(String tenantId, Long stockId) {
+        TenantBook book = tenants.get(tenantId);
+        return book == null ? null : book.books.get(stockId);
+    }
+
+    /*
+     * This method returns the current highest bid of the given stock, read from the database without holding it in
+     * memory if it is not held yet. Used for the bids on lots that are not running, whose book would never be evicted
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @return HighestBidSnapshot - the current highest bid, HighestBidSnapshot.EMPTY if nobody has bid yet
+     */
+    public HighestBidSnapshot read(String tenantId, Long stockId) {
+        HighestBidSnapshot snapshot = peek(tenantId, stockId);
+        return snapshot != null ? snapshot : HighestBidSnapshot.of(TenantScope.call(tenantId, () -> highestBidRepository.getByStockId(stockId)));
+    }
+
+    /*
+     * This method makes the given bid the highest bid of its stock and schedules it to be persisted
+     * @param tenantId - the tenant of the stock
+     * @param bidModel - the accepted bid
+     * @return HighestBidSnapshot - the highest bid that was replaced
+     */
+    public HighestBidSnapshot accept(String tenantId, LiveBidModel bidModel) {
+        if (!orderBookLease.isHeld()) {
+            throw new IllegalStateException("Order book lease is not held by this node, bid on stock " + bidModel.getStockId() + " refused");
+        }
+        Long stockId = bidModel.getStockId();
+        HighestBidSnapshot previous = get(tenantId, stockId);
+        TenantBook book = book(tenantId);
+        book.books.put(stockId, new HighestBidSnapshot(bidModel.getAmount(), bidModel.getCustomerId(), bidModel.getQuantity()));
+        book.dirtyStocks.add(stockId);
+        return previous;
+    }
+
+    /*
+     * This method puts back the highest bid that was replaced by accept, it is used when the accepted bid could not be
+     * recorded or its transaction rolled back
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @param previous - the highest bid returned by accept
+     */
+    public void restore(String tenantId, Long stockId, HighestBidSnapshot previous) {
+        TenantBook book = book(tenantId);
+        book.books.put(stockId, previous);
+        book.dirtyStocks.add(stockId);
+    }
+
+    /*
+     * This method drops the given stock from memory once its pending write has been flushed, e.g. when the auction is closed
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     */
+    public void evict(String tenantId, Long stockId) {
+        TenantBook book = tenants.get(tenantId);
+        if (book == null) {
+            return;
+        }
+        if (book.dirtyStocks.contains(stockId)) {
+            flush();
+        }
+        book.books.remove(stockId);
+        book.persistedStocks.remove(stockId);
+    }
+
+    /*
+     * This method returns the stocks whose highest bid is held in memory per tenant, used by the AuctionStateSnapshotter
+     */
+    Map<String, Set<Long>> stockIds() {
+        Map<String, Set<Long>> stockIds = new HashMap<>();
+        tenants.forEach((tenantId, book) -> {
+            if (!book.books.isEmpty()) {
+                stockIds.put(tenantId, new HashSet<>(book.books.keySet()));
+            }
+        });
+        return stockIds;
+    }
+
+    boolean isPersisted(String tenantId, Long stockId) {
+        TenantBook book = tenants.get(tenantId);
+        return book != null && book.persistedStocks.contains(stockId);
+    }
+
+    /*
+     * This method puts a highest bid restored by the AuctionStateSnapshotter into memory without loading it from the database
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock id
+     * @param snapshot - the restored highest bid
+     * @param persisted - true if the stock's highest_bid row exists
+     * @param dirty - true if the value may be newer than the highest_bid row and has to be written
+     */
+    void install(String tenantId, Long stockId, HighestBidSnapshot snapshot, boolean persisted, boolean dirty) {
+        TenantBook book = book(tenantId);
+        book.books.put(stockId, snapshot);
+        if (persisted) {
+            book.persistedStocks.add(stockId);
+        }
+        if (dirty && !snapshot.isEmpty()) {
+            book.dirtyStocks.add(stockId);
+        }
+    }
+
+    private TenantBook book(String tenantId) {
+        return tenants.computeIfAbsent(tenantId, id -> new TenantBook());
+    }
+
+    private HighestBidSnapshot load(String tenantId, TenantBook book, Long stockId) {
+        HighestBid highestBid = TenantScope.call(tenantId, () -> highestBidRepository.getByStockId(stockId));
+        if (highestBid != null) {
+            book.persistedStocks.add(stockId);
+        }
+        return HighestBidSnapshot.of(highestBid);
+    }
+
+    /*
+     * This method writes the latest highest bid of every changed stock to the highest_bid table of its tenant, one
+     * transaction per tenant. Only the newest value per stock is written, intermediate values overwritten in memory are
+     * never sent to the database
+     */
+    synchronized void flush() {
+        tenants.forEach(this::flush);
+    }
+
+    private void flush(String tenantId, TenantBook book) {
+        List<Long> stockIds = new ArrayList<>();
+        Iterator<Long> iterator = book.dirtyStocks.iterator();
+        while (iterator.hasNext()) {
+            stockIds.add(iterator.next());
+            iterator.remove();
+        }
+        if (stockIds.isEmpty()) {
+            return;
+        }
+        List<Long> insertedStocks = new ArrayList<>();
+        try {
+            TenantScope.run(tenantId, () -> transactionTemplate.executeWithoutResult(status -> {
+                for (Long stockId : stockIds) {
+                    HighestBidSnapshot snapshot = book.books.get(stockId);
+                    if (snapshot != null && !snapshot.isEmpty() && persist(book, stockId, snapshot)) {
+                        insertedStocks.add(stockId);
+                    }
+                }
+            }));
+            book.persistedStocks.addAll(insertedStocks);
+        } catch (Exception e) {
+            log.error("Write-behind of highest bids failed for tenant: " + tenantId + " stocks: " + stockIds + " with error: " + e.getMessage());
+            book.dirtyStocks.addAll(stockIds);
+        }
+    }
+
+    /*
+     * @return boolean - true if a new highest_bid row was inserted for the stock
+     */
+    private boolean persist(TenantBook book, Long stockId, HighestBidSnapshot snapshot) {
+        if (book.persistedStocks.contains(stockId)) {
+            highestBidRepository.updateHighestBidsForStockInLiveBid(snapshot.getAmount(), snapshot.getCustomerId(), stockId, snapshot.getQuantity());
+            return false;
+        }
+        HighestBid highestBid = new HighestBid();
+        highestBid.setStockId(stockId);
+        highestBid.setQuantity(snapshot.getQuantity());
+        highestBid.setCustomerId(snapshot.getCustomerId());
+        highestBid.setAmount(snapshot.getAmount());
+        highestBid.setCreatedAt(new Date());
+        highestBidRepository.save(highestBid);
+        return true;
+    }
+
+    private static final class TenantBook {
+
+        private final ConcurrentHashMap<Long, HighestBidSnapshot> books = new ConcurrentHashMap<>();
+
+        // stocks whose highest_bid row already exists, so the write-behind can use the raw update query
+        private final Set<Long> persistedStocks = ConcurrentHashMap.newKeySet();
+
+        private final Set<Long> dirtyStocks = ConcurrentHashMap.newKeySet();
+    }
+}
@@ -0,0 +1,489 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.entity.CustomerMargin;
+import cone.customer.api.auctionservice.entity.StockItem;
+import cone.customer.api.auctionservice.repository.CustomerMarginRepository;
+import cone.customer.api.auctionservice.repository.StockItemRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Keeps the available margin of every bidding customer of each tenant in memory and reserves margin for the lots they hold.
+ *
+ * A bid reserves its required margin from the customer's balance (tryReserve). The reservation is pending until the bid is
+ * recorded (commit), which releases the margin of the outbid holder of the stock, or until the bid fails (abort), which
+ * gives the margin back. Bids of one stock run one at a time in the stock's BidSequencer lane, so a stock has at most one
+ * pending reservation. Closing a lot (settle) gives the holder's margin back.
+ *
+ * The reserved and released margin is written to customer_margin as a delta (current_margin = current_margin - delta)
+ * every flushIntervalMs, so deposits and admin edits made meanwhile are kept, and every balance is re-read from
+ * customer_margin every refreshIntervalMs to pick those edits up.
+ *
+ * In cluster mode the balances of a customer are not owned by a single node, so no balance is kept in memory: a bid
+ * reserves its margin with a conditional update of the customer's row inside the bid's transaction, which the database
+ * serializes across nodes.
+ */
+@Slf4j
+@Component
+public class MarginReservationEngine {
+
+    private static final String DEDUCT_QUERY = "update CustomerMargin c set c.currentMargin = c.currentMargin - :margin where c.id = :id";
+    private static final String RESERVE_QUERY = DEDUCT_QUERY + " and c.currentMargin >= :margin";
+
+    @Autowired
+    CustomerMarginRepository customerMarginRepository;
+
+    @Autowired
+    StockItemRepository stockItemRepository;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Value("${bid.margin.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    @Value("${bid.margin.refresh-interval-ms:5000}")
+    private long refreshIntervalMs;
+
+    @Value("${bid.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    private final ConcurrentHashMap<String, TenantMargins> tenants = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("margin-flush-");
+        threadFactory.setDaemon(true);
+        flusher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        flush();
+    }
+
+    /*
+     * This method reserves the margin a bid requires, amount * stock item quantity * marginPercentage / 100
+     * @param tenantId - the tenant of the bid
+     * @param customerId - the bidder
+     * @param stockId - the stock bid on
+     * @param amount - the bid amount
+     * @param marginPercentage - the margin percentage of the tenant
+     * @return MarginCheck - whether the margin was reserved, and the available and required margin if not
+     */
+    public MarginCheck tryReserve(String tenantId, Long customerId, Long stockId, Integer amount, Double marginPercentage) {
+        TenantMargins margins = margins(tenantId);
+        Integer quantity = stockQuantity(margins, stockId);
+        if (quantity == null) {
+            return MarginCheck.NOT_FOUND;
+        }
+        long requiredCents = (long) Math.ceil(amount * (double) quantity * marginPercentage);
+        if (clusterEnabled) {
+            return reserveInDatabase(margins, customerId, stockId, requiredCents);
+        }
+        Balance balance = balance(margins, customerId);
+        if (balance == null) {
+            return MarginCheck.NOT_FOUND;
+        }
+        if (!balance.reserve(requiredCents)) {
+            return new MarginCheck(false, true, balance.available() / 100.0, requiredCents / 100.0);
+        }
+        margins.pendingReservations.put(stockId, new Reservation(customerId, requiredCents));
+        margins.dirtyCustomers.add(customerId);
+        return MarginCheck.RESERVED;
+    }
+
+    /*
+     * This method turns the pending reservation of the stock into the held one, releasing the margin of the outbid holder.
+     * If the bid's transaction rolls back afterwards the outbid holder's reservation is held again and the bid's margin
+     * is given back
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock whose bid was recorded
+     */
+    public void commit(String tenantId, Long stockId) {
+        TenantMargins margins = margins(tenantId);
+        Reservation pending = margins.pendingReservations.remove(stockId);
+        if (pending == null) {
+            return;
+        }
+        Reservation outbid = margins.heldReservations.put(stockId, pending);
+        if (outbid != null) {
+            release(margins, outbid);
+        }
+        BidRollbacks.onRollback(() -> revert(margins, stockId, pending, outbid));
+    }
+
+    /*
+     * This method gives back the margin of a pending reservation whose bid was not recorded
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the stock whose bid failed
+     */
+    public void abort(String tenantId, Long stockId) {
+        TenantMargins margins = margins(tenantId);
+        Reservation pending = margins.pendingReservations.remove(stockId);
+        if (pending != null) {
+            release(margins, pending);
+        }
+    }
+
+    /*
+     * This method gives back the margin held for the holder of a closed lot, the lot itself is settled by the admin actions
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the closed stock
+     */
+    public void settle(String tenantId, Long stockId) {
+        TenantMargins margins = margins(tenantId);
+        Reservation held = margins.heldReservations.remove(stockId);
+        margins.stockQuantities.remove(stockId);
+        if (held == null) {
+            return;
+        }
+        if (clusterEnabled) {
+            // settle runs outside a bid, the row is updated in a transaction of its own
+            TenantScope.run(tenantId, () -> transactionTemplate.executeWithoutResult(status -> release(margins, held)));
+        } else {
+            release(margins, held);
+        }
+    }
+
+    /*
+     * This method returns the margin held for the holder of the given stock, used by the AuctionStateSnapshotter
+     * @return Reservation - the held reservation or null
+     */
+    Reservation heldReservation(String tenantId, Long stockId) {
+        return margins(tenantId).heldReservations.get(stockId);
+    }
+
+    Integer cachedStockQuantity(String tenantId, Long stockId) {
+        return margins(tenantId).stockQuantities.get(stockId);
+    }
+
+    /*
+     * This method restores the held reservation and the stock item quantity of a stock from a snapshot. The customer's
+     * balance is not touched, the reserved margin is already deducted from the flushed customer_margin row
+     */
+    void install(String tenantId, Long stockId, Long customerId, long cents, Integer quantity) {
+        TenantMargins margins = margins(tenantId);
+        if (customerId != null) {
+            margins.heldReservations.putIfAbsent(stockId, new Reservation(customerId, cents));
+        }
+        if (quantity != null) {
+            margins.stockQuantities.putIfAbsent(stockId, quantity);
+        }
+    }
+
+    private TenantMargins margins(String tenantId) {
+        return tenants.computeIfAbsent(tenantId, id -> new TenantMargins());
+    }
+
+    /*
+     * This method reserves the margin with a conditional update of the customer's row, it runs in the bid's transaction
+     * so the reservation is rolled back with the bid
+     */
+    private MarginCheck reserveInDatabase(TenantMargins margins, Long customerId, Long stockId, long requiredCents) {
+        int reserved = entityManager.createQuery(RESERVE_QUERY)
+                .setParameter("margin", requiredCents / 100.0)
+                .setParameter("id", Math.toIntExact(customerId))
+                .executeUpdate();
+        if (reserved == 1) {
+            margins.pendingReservations.put(stockId, new Reservation(customerId, requiredCents));
+            return MarginCheck.RESERVED;
+        }
+        Optional<CustomerMargin> customerMargin = customerMarginRepository.findById(Math.toIntExact(customerId));
+        if (!customerMargin.isPresent() || customerMargin.get().getCurrentMargin() == null) {
+            return MarginCheck.NOT_FOUND;
+        }
+        return new MarginCheck(false, true, customerMargin.get().getCurrentMargin(), requiredCents / 100.0);
+    }
+
+    private void revert(TenantMargins margins, Long stockId, Reservation committed, Reservation outbid) {
+        if (outbid != null) {
+            margins.heldReservations.put(stockId, outbid);
+        } else {
+            margins.heldReservations.remove(stockId, committed);
+        }
+        if (clusterEnabled) {
+            // the updates of the customer rows were rolled back with the bid
+            return;
+        }
+        if (outbid != null) {
+            hold(margins, outbid);
+        }
+        release(margins, committed);
+    }
+
+    private void hold(TenantMargins margins, Reservation reservation) {
+        Balance balance = margins.balances.get(reservation.customerId);
+        if (balance != null) {
+            balance.take(reservation.cents);
+            margins.dirtyCustomers.add(reservation.customerId);
+        }
+    }
+
+    private void release(TenantMargins margins, Reservation reservation) {
+        if (clusterEnabled) {
+            entityManager.createQuery(DEDUCT_QUERY)
+                    .setParameter("margin", -reservation.cents / 100.0)
+                    .setParameter("id", Math.toIntExact(reservation.customerId))
+                    .executeUpdate();
+            return;
+        }
+        Balance balance = margins.balances.get(reservation.customerId);
+        if (balance != null) {
+            balance.release(reservation.cents);
+            margins.dirtyCustomers.add(reservation.customerId);
+        }
+    }
+
+    private Balance balance(TenantMargins margins, Long customerId) {
+        Balance balance = margins.balances.get(customerId);
+        if (balance == null) {
+            Optional<CustomerMargin> customerMargin = customerMarginRepository.findById(Math.toIntExact(customerId));
+            if (!customerMargin.isPresent() || customerMargin.get().getCurrentMargin() == null) {
+                return null;
+            }
+            Balance loaded = new Balance(cents(customerMargin.get()), System.currentTimeMillis());
+            balance = margins.balances.putIfAbsent(customerId, loaded);
+            if (balance == null) {
+                balance = loaded;
+            }
+        }
+        return balance;
+    }
+
+    private Integer stockQuantity(TenantMargins margins, Long stockId) {
+        Integer quantity = margins.stockQuantities.get(stockId);
+        if (quantity == null) {
+            Optional<StockItem> stockItem = stockItemRepository.findByStockId(stockId);
+            if (!stockItem.isPresent()) {
+                return null;
+            }
+            quantity = stockItem.get().getQuantity();
+            margins.stockQuantities.put(stockId, quantity);
+        }
+        return quantity;
+    }
+
+    /*
+     * This method writes the margin reserved and released since the last flush to customer_margin as deltas, one
+     * transaction per tenant, then re-reads the balances not read for refreshIntervalMs
+     */
+    synchronized void flush() {
+        tenants.forEach((tenantId, margins) -> {
+            flush(tenantId, margins);
+            refresh(tenantId, margins);
+        });
+    }
+
+    private void flush(String tenantId, TenantMargins margins) {
+        Map<Long, Long> deltas = new LinkedHashMap<>();
+        Iterator<Long> iterator = margins.dirtyCustomers.iterator();
+        while (iterator.hasNext()) {
+            Long customerId = iterator.next();
+            iterator.remove();
+            Balance balance = margins.balances.get(customerId);
+            long delta = balance == null ? 0 : balance.takeUnflushed();
+            if (delta != 0) {
+                deltas.put(customerId, delta);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            TenantScope.run(tenantId, () -> transactionTemplate.executeWithoutResult(status -> deltas.forEach((customerId, delta) ->
+                    entityManager.createQuery(DEDUCT_QUERY)
+                            .setParameter("margin", delta / 100.0)
+                            .setParameter("id", Math.toIntExact(customerId))
+                            .executeUpdate())));
+        } catch (Exception e) {
+            log.error("Flushing margins of customers " + deltas.keySet() + " of tenant " + tenantId + " failed with error: " + e.getMessage());
+            deltas.forEach((customerId, delta) -> {
+                margins.balances.get(customerId).returnUnflushed(delta);
+                margins.dirtyCustomers.add(customerId);
+            });
+        }
+    }
+
+    /*
+     * This method re-reads the stored margin of the balances not read for refreshIntervalMs, so deposits and admin edits
+     * reach the bid path. It runs on the flusher right after a flush, the deltas not flushed yet stay deducted
+     */
+    private void refresh(String tenantId, TenantMargins margins) {
+        long now = System.currentTimeMillis();
+        List<Integer> customerIds = new ArrayList<>();
+        margins.balances.forEach((customerId, balance) -> {
+            if (now - balance.refreshedAt() > refreshIntervalMs) {
+                customerIds.add(Math.toIntExact(customerId));
+            }
+        });
+        if (customerIds.isEmpty()) {
+            return;
+        }
+        try {
+            Iterable<CustomerMargin> customerMargins = TenantScope.call(tenantId, () -> customerMarginRepository.findAllById(customerIds));
+            for (CustomerMargin customerMargin : customerMargins) {
+                Balance balance = margins.balances.get(customerMargin.getId().longValue());
+                if (balance != null && customerMargin.getCurrentMargin() != null) {
+                    balance.refresh(cents(customerMargin), now);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Refreshing margins of tenant " + tenantId + " failed with error: " + e.getMessage());
+        }
+    }
+
+    private static long cents(CustomerMargin customerMargin) {
+        return Math.round(customerMargin.getCurrentMargin() * 100);
+    }
+
+    public static final class MarginCheck {
+
+        static final MarginCheck RESERVED = new MarginCheck(true, true, null, null);
+        static final MarginCheck NOT_FOUND = new MarginCheck(false, false, null, null);
+
+        private final boolean reserved;
+        private final boolean found;
+        private final Double availableMargin;
+        private final Double requiredMargin;
+
+        MarginCheck(boolean reserved, boolean found, Double availableMargin, Double requiredMargin) {
+            this.reserved = reserved;
+            this.found = found;
+            this.availableMargin = availableMargin;
+            this.requiredMargin = requiredMargin;
+        }
+
+        public boolean isReserved() {
+            return reserved;
+        }
+
+        /*
+         * false if the stock item or the customer margin does not exist
+         */
+        public boolean isFound() {
+            return found;
+        }
+
+        public Double getAvailableMargin() {
+            return availableMargin;
+        }
+
+        public Double getRequiredMargin() {
+            return requiredMargin;
+        }
+    }
+
+    static final class Reservation {
+
+        private final Long customerId;
+        private final long cents;
+
+        private Reservation(Long customerId, long cents) {
+            this.customerId = customerId;
+            this.cents = cents;
+        }
+
+        Long getCustomerId() {
+            return customerId;
+        }
+
+        long getCents() {
+            return cents;
+        }
+    }
+
+    private static final class TenantMargins {
+
+        private final ConcurrentHashMap<Long, Balance> balances = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Long, Integer> stockQuantities = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Long, Reservation> heldReservations = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Long, Reservation> pendingReservations = new ConcurrentHashMap<>();
+        private final Set<Long> dirtyCustomers = ConcurrentHashMap.newKeySet();
+    }
+
+    /*
+     * The available margin of a customer and the part of it not written to customer_margin yet
+     */
+    private static final class Balance {
+
+        private long availableCents;
+        // reserved minus released since the last flush, still to be deducted from the stored margin
+        private long unflushedCents;
+        private long refreshedAt;
+
+        private Balance(long availableCents, long refreshedAt) {
+            this.availableCents = availableCents;
+            this.refreshedAt = refreshedAt;
+        }
+
+        synchronized boolean reserve(long cents) {
+            if (availableCents < cents) {
+                return false;
+            }
+            take(cents);
+            return true;
+        }
+
+        synchronized void take(long cents) {
+            availableCents -= cents;
+            unflushedCents += cents;
+        }
+
+        synchronized void release(long cents) {
+            availableCents += cents;
+            unflushedCents -= cents;
+        }
+
+        synchronized long available() {
+            return availableCents;
+        }
+
+        synchronized long takeUnflushed() {
+            long delta = unflushedCents;
+            unflushedCents = 0;
+            return delta;
+        }
+
+        synchronized void returnUnflushed(long delta) {
+            unflushedCents += delta;
+        }
+
+        synchronized long refreshedAt() {
+            return refreshedAt;
+        }
+
+        synchronized void refresh(long storedCents, long now) {
+            availableCents = storedCents - unflushedCents;
+            refreshedAt = now;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+import com.google.firebase.database.ValueEventListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Outside cluster mode the LiveOrderBook of a node is the authority for the highest bid of every stock, which only holds
+ * while a single node serves bids. With bid.orderbook.lease.enabled the node therefore holds a lease in Firebase (holder
+ * and expiry under leaseNode) and renews it every ttlMs / 3. A node that finds the lease held by another node refuses to
+ * start, and a node that can no longer renew its lease stops accepting bids until it holds the lease again.
+ * The expiry is kept in Firebase server time (the local clock plus .info/serverTimeOffset), so nodes whose clocks
+ * disagree still agree on when a lease has expired.
+ * The lease is off by default so existing deployments keep starting, a node without it logs that it assumes to be the
+ * only bid node. In cluster mode no lease is taken, every stock is owned by exactly one node of the BidRouter's ring.
+ */
+@Slf4j
+@Component
+public class OrderBookLease {
+
+    @Value("${bid.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${bid.orderbook.lease.enabled:false}")
+    private boolean enabled;
+
+    @Value("${bid.orderbook.lease.ttl-ms:15000}")
+    private long ttlMs;
+
+    @Value("${bid.orderbook.lease.node:bid_order_book_lease}")
+    private String leaseNode;
+
+    private final String holderId = UUID.randomUUID().toString();
+
+    private volatile long heldUntil;
+
+    private volatile long serverTimeOffset;
+
+    private ValueEventListener serverTimeOffsetListener;
+
+    private ScheduledExecutorService renewer;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || clusterEnabled) {
+            if (!clusterEnabled) {
+                log.warn("Order book lease is disabled, this node assumes it is the only node taking bids; "
+                        + "enable bid.orderbook.lease or bid.cluster when running more than one");
+            }
+            heldUntil = Long.MAX_VALUE;
+            return;
+        }
+        trackServerTimeOffset();
+        if (!tryAcquire()) {
+            throw new IllegalStateException("The order book lease " + leaseNode + " is held by another node, run a single bid node or enable bid.cluster");
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("orderbook-lease-");
+        threadFactory.setDaemon(true);
+        renewer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        renewer.scheduleWithFixedDelay(this::renew, ttlMs / 3, ttlMs / 3, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (renewer == null) {
+            return;
+        }
+        renewer.shutdown();
+        renewer.awaitTermination(5, TimeUnit.SECONDS);
+        FirebaseDatabase.getInstance().getReference(".info/serverTimeOffset").removeEventListener(serverTimeOffsetListener);
+        heldUntil = 0;
+        // a clean shutdown hands the lease over right away instead of after ttlMs
+        FirebaseDatabase.getInstance().getReference(leaseNode).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData current) {
+                if (!holderId.equals(holder(current))) {
+                    return Transaction.abort();
+                }
+                current.setValue(null);
+                return Transaction.success(current);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error, boolean committed, DataSnapshot snapshot) {
+            }
+        });
+    }
+
+    /*
+     * true if this node may accept bids into its order book
+     */
+    public boolean isHeld() {
+        return System.currentTimeMillis() < heldUntil;
+    }
+
+    /*
+     * This method follows the offset between the local clock and the Firebase server clock, and waits for its first value
+     * so the first acquire already compares server times
+     */
+    private void trackServerTimeOffset() {
+        CountDownLatch received = new CountDownLatch(1);
+        serverTimeOffsetListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                Object offset = snapshot.getValue();
+                if (offset instanceof Number) {
+                    serverTimeOffset = ((Number) offset).longValue();
+                }
+                received.countDown();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                log.error("Reading the Firebase server time offset failed with error: " + error.getMessage());
+                received.countDown();
+            }
+        };
+        FirebaseDatabase.getInstance().getReference(".info/serverTimeOffset").addValueEventListener(serverTimeOffsetListener);
+        try {
+            received.await(ttlMs / 3, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long serverTime() {
+        return System.currentTimeMillis() + serverTimeOffset;
+    }
+
+    private void renew() {
+        if (!tryAcquire()) {
+            log.error("Order book lease " + leaseNode + " could not be renewed, bids are refused until it is held again");
+        }
+    }
+
+    /*
+     * This method takes or renews the lease if it is free, expired or already held by this node
+     * @return boolean - true if this node holds the lease for the next ttlMs
+     */
+    private boolean tryAcquire() {
+        // heldUntil is checked against the local clock, expires_at against the server clock
+        long localNow = System.currentTimeMillis();
+        long now = serverTime();
+        CountDownLatch completed = new CountDownLatch(1);
+        AtomicBoolean acquired = new AtomicBoolean();
+        FirebaseDatabase.getInstance().getReference(leaseNode).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData current) {
+                String holder = holder(current);
+                if (holder != null && !holder.equals(holderId) && expiresAt(current) > now) {
+                    return Transaction.abort();
+                }
+                Map<String, Object> lease = new HashMap<>(4);
+                lease.put("holder", holderId);
+                lease.put("expires_at", now + ttlMs);
+                current.setValue(lease);
+                return Transaction.success(current);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error, boolean committed, DataSnapshot snapshot) {
+                if (error != null) {
+                    log.error("Order book lease transaction failed with error: " + error.getMessage());
+                }
+                acquired.set(error == null && committed);
+                completed.countDown();
+            }
+        });
+        try {
+            if (completed.await(ttlMs / 3, TimeUnit.MILLISECONDS) && acquired.get()) {
+                heldUntil = localNow + ttlMs;
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static String holder(MutableData current) {
+        Object holder = current.child("holder").getValue();
+        return holder == null ? null : holder.toString();
+    }
+
+    private static long expiresAt(MutableData current) {
+        Object expiresAt = current.child("expires_at").getValue();
+        return expiresAt instanceof Number ? ((Number) expiresAt).longValue() : 0;
+    }
+}
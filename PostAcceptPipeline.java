@@ -0,0 +1,132 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Runs the low-priority side effects of an accepted bid (admin feed, active bidder count, bid placed event) after the
+ * bid's transaction has committed, so the response is released as soon as the bid is recorded.
+ *
+ * Every step has its own bounded executor (threadsPerStep threads, queueCapacity queued tasks) so a slow step cannot
+ * hold back the others. By default one thread per step keeps each step in acceptance order. When a queue is full the
+ * oldest queued task of the step is dropped for the new one, counted as bid.post-accept.dropped{step}: the bidding
+ * thread never runs or waits for a side effect, and the feed and bidder count steps keep their latest state.
+ * The steps run on platform threads: the service runs on Spring Boot 2 and a Java release without virtual threads, and
+ * a per-step thread is what keeps a step in order anyway.
+ * The application's TaskDecorator, if any, is applied like on the @Async executor, so the steps see the user context.
+ */
+@Slf4j
+@Component
+public class PostAcceptPipeline {
+
+    public enum Step {
+        ADMIN_FEED, ACTIVE_BIDDERS, EVENTS
+    }
+
+    public interface StepTask {
+        void run() throws Exception;
+    }
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired(required = false)
+    TaskDecorator taskDecorator;
+
+    @Value("${bid.post-accept.threads-per-step:1}")
+    private int threadsPerStep;
+
+    @Value("${bid.post-accept.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private final Map<Step, ThreadPoolTaskExecutor> executors = new EnumMap<>(Step.class);
+    private final Map<Step, Timer> timers = new EnumMap<>(Step.class);
+
+    @PostConstruct
+    public void start() {
+        for (Step step : Step.values()) {
+            String name = step.name().toLowerCase().replace('_', '-');
+            Counter droppedCounter = meterRegistry.counter("bid.post-accept.dropped", "step", name);
+            AtomicLong dropped = new AtomicLong();
+            ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+            executor.setCorePoolSize(threadsPerStep);
+            executor.setMaxPoolSize(threadsPerStep);
+            executor.setQueueCapacity(queueCapacity);
+            executor.setThreadNamePrefix("post-accept-" + name + "-");
+            executor.setDaemon(true);
+            executor.setWaitForTasksToCompleteOnShutdown(true);
+            executor.setAwaitTerminationSeconds(5);
+            executor.setRejectedExecutionHandler((task, pool) -> {
+                droppedCounter.increment();
+                if (dropped.getAndIncrement() % 1000 == 0) {
+                    log.warn("Post-accept queue of step " + step + " is full, " + dropped.get() + " tasks dropped so far");
+                }
+                new ThreadPoolExecutor.DiscardOldestPolicy().rejectedExecution(task, pool);
+            });
+            if (taskDecorator != null) {
+                executor.setTaskDecorator(taskDecorator);
+            }
+            executor.initialize();
+            executors.put(step, executor);
+            timers.put(step, Timer.builder("bid.post-accept").tag("step", name).publishPercentileHistogram().register(meterRegistry));
+            Gauge.builder("bid.post-accept.queue.depth", executor, e -> e.getThreadPoolExecutor().getQueue().size())
+                    .tag("step", name).register(meterRegistry);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executors.values().forEach(ThreadPoolTaskExecutor::shutdown);
+    }
+
+    /*
+     * This method runs the step once the current transaction has committed, or right away if there is no transaction.
+     * A step is not run if the transaction rolls back
+     * @param step - the step, which picks the executor
+     * @param task - the side effect
+     */
+    public void afterCommit(Step step, StepTask task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(step, task);
+                }
+            });
+        } else {
+            submit(step, task);
+        }
+    }
+
+    private void submit(Step step, StepTask task) {
+        Timer timer = timers.get(step);
+        executors.get(step).execute(() -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Post-accept step " + step + " failed with error: " + e.getMessage());
+            } finally {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+}
@@ -0,0 +1,42 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Date;
+
+/*
+ * A proxy (autobid) ceiling registered with the AutoBidEngine, one row per buyer and stock in the tenant's database.
+ * The id orders the registrations, the earlier registration wins a tie of ceilings
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "proxy_bid_registration")
+public class ProxyBidRegistration {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "stock_id", nullable = false)
+    private Long stockId;
+
+    @Column(name = "customer_id", nullable = false)
+    private Long customerId;
+
+    @Column(name = "ceiling", nullable = false)
+    private Integer ceiling;
+
+    @Column(name = "increment", nullable = false)
+    private Integer increment;
+
+    @Column(name = "created_at", nullable = false)
+    private Date createdAt;
+}
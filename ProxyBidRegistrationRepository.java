@@ -0,0 +1,19 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ProxyBidRegistrationRepository extends JpaRepository<ProxyBidRegistration, Long> {
+
+    List<ProxyBidRegistration> findByStockIdOrderByIdAsc(Long stockId);
+
+    @Modifying
+    @Query("delete from ProxyBidRegistration r where r.stockId = :stockId and r.customerId = :customerId")
+    int deleteByStockIdAndCustomerId(@Param("stockId") Long stockId, @Param("customerId") Long customerId);
+}
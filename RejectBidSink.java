@@ -0,0 +1,249 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cone.customer.api.auctionservice.entity.Bid;
+import cone.customer.api.auctionservice.repository.BidRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Bounded write-behind for rejected bids (LB, SB, OL, ER).
+ * Rejects are queued and written by a single writer thread in batches of up to batchSize rows or every flushIntervalMs.
+ * When the queue stays full for offerTimeoutMs the reject is spilled to a local journal file, which is replayed
+ * into the bid table once the queue has drained.
+ * Every reject carries its tenant, a batch is written with one saveAll per tenant with the tenant set on the writer
+ * thread (TenantScope), and each spilled line is the tenant id, a tab and the bid as JSON.
+ */
+@Slf4j
+@Component
+public class RejectBidSink {
+
+    @Autowired
+    BidRepository bidRepository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${bid.reject-sink.capacity:10000}")
+    private int capacity;
+
+    @Value("${bid.reject-sink.batch-size:500}")
+    private int batchSize;
+
+    @Value("${bid.reject-sink.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${bid.reject-sink.offer-timeout-ms:20}")
+    private long offerTimeoutMs;
+
+    @Value("${bid.reject-sink.spill-file:reject-bids.spill}")
+    private String spillFile;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private BlockingQueue<RejectedBid> queue;
+    private Path spillPath;
+    private Timer flushTimer;
+    private Thread writer;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(capacity);
+        spillPath = Paths.get(spillFile);
+        Gauge.builder("bid.reject.sink.queue.depth", queue, BlockingQueue::size).register(meterRegistry);
+        flushTimer = Timer.builder("bid.reject.sink.flush").publishPercentileHistogram().register(meterRegistry);
+
+        running = true;
+        writer = new Thread(this::drain, "reject-bid-sink");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+        List<RejectedBid> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        flush(remaining);
+    }
+
+    /*
+     * This method queues a rejected bid for insertion, waiting at most offerTimeoutMs for space before spilling it to disk
+     * @param tenantId - the tenant of the bid
+     * @param bid - the rejected bid
+     */
+    public void submit(String tenantId, Bid bid) {
+        RejectedBid rejected = new RejectedBid(tenantId, bid);
+        try {
+            if (queue.offer(rejected, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spill(tenantId, Collections.singletonList(bid));
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    private void drain() {
+        List<RejectedBid> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                RejectedBid first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    replaySpill();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    long remainingNanos = deadline - System.nanoTime();
+                    if (queue.drainTo(batch, batchSize - batch.size()) == 0) {
+                        RejectedBid next = remainingNanos > 0 ? queue.poll(remainingNanos, TimeUnit.NANOSECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                flush(batch);
+                return;
+            } catch (Exception e) {
+                log.error("Reject bid sink failed with error: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /*
+     * This method inserts the batch with one saveAll call per tenant (a single transaction, JDBC batched where the id
+     * generator allows) and spills the bids of a tenant to disk if their insert fails
+     */
+    private void flush(List<RejectedBid> batch) {
+        Map<String, List<Bid>> tenantBatches = new LinkedHashMap<>();
+        for (RejectedBid rejected : batch) {
+            tenantBatches.computeIfAbsent(rejected.tenantId, id -> new ArrayList<>()).add(rejected.bid);
+        }
+        tenantBatches.forEach(this::flush);
+    }
+
+    private void flush(String tenantId, List<Bid> bids) {
+        if (bids.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            TenantScope.run(tenantId, () -> bidRepository.saveAll(bids));
+        } catch (Exception e) {
+            log.error("Insertion of " + bids.size() + " rejected bids of tenant " + tenantId + " failed with error: " + e.getMessage());
+            spill(tenantId, bids);
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void spill(String tenantId, List<Bid> bids) {
+        try (BufferedWriter out = Files.newBufferedWriter(spillPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Bid bid : bids) {
+                out.write(tenantId);
+                out.write('\t');
+                out.write(objectMapper.writeValueAsString(bid));
+                out.newLine();
+            }
+        } catch (IOException e) {
+            log.error("Spilling of " + bids.size() + " rejected bids failed, they are lost: " + e.getMessage());
+        }
+    }
+
+    /*
+     * This method moves spilled rejects back into the bid table once the writer is idle
+     */
+    private void replaySpill() {
+        Path replayPath = spillPath.resolveSibling(spillPath.getFileName() + ".replay");
+        synchronized (this) {
+            if (!queue.isEmpty()) {
+                return;
+            }
+            // a replay file left behind by an interrupted replay is picked up again before new spills
+            if (!Files.exists(replayPath)) {
+                if (!Files.exists(spillPath)) {
+                    return;
+                }
+                try {
+                    Files.move(spillPath, replayPath, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    log.error("Replay of spilled rejected bids failed with error: " + e.getMessage());
+                    return;
+                }
+            }
+        }
+        List<RejectedBid> batch = new ArrayList<>(batchSize);
+        try (BufferedReader in = Files.newBufferedReader(replayPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    // the tenant is unknown, the bid cannot be routed to a database
+                    log.error("Spilled rejected bid without a tenant is unreadable and dropped: " + line);
+                    continue;
+                }
+                batch.add(new RejectedBid(line.substring(0, tab), objectMapper.readValue(line.substring(tab + 1), Bid.class)));
+                if (batch.size() == batchSize) {
+                    flush(batch);
+                    batch.clear();
+                }
+            }
+            flush(batch);
+            Files.delete(replayPath);
+        } catch (IOException e) {
+            log.error("Replay of spilled rejected bids failed with error: " + e.getMessage());
+        }
+    }
+
+    private static final class RejectedBid {
+
+        private final String tenantId;
+        private final Bid bid;
+
+        private RejectedBid(String tenantId, Bid bid) {
+            this.tenantId = tenantId;
+            this.bid = bid;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.connect1.coreusercontext.UserContext;
+
+import java.util.function.Supplier;
+
+/*
+ * Runs work for a tenant on a thread that is not serving a request of that tenant, e.g. the write-behind flushers.
+ * The repositories are routed to the tenant's database through the UserContext, so the tenant is set on the thread for
+ * the duration of the work and the thread's previous tenant (none on a background thread) is put back afterwards.
+ */
+public final class TenantScope {
+
+    private TenantScope() {
+    }
+
+    /*
+     * This method runs the task with the given tenant set on the user context of the current thread
+     * @param tenantId - the tenant whose repositories the task uses
+     * @param task - the work
+     * @return T - the result of the task
+     */
+    public static <T> T call(String tenantId, Supplier<T> task) {
+        String previous = UserContext.getTenantId();
+        UserContext.setTenantId(tenantId);
+        try {
+            return task.get();
+        } finally {
+            UserContext.setTenantId(previous);
+        }
+    }
+
+    /*
+     * This method runs a task that may throw with the given tenant set on the user context of the current thread
+     */
+    public static <T> T callChecked(String tenantId, BidSequencer.BidTask<T> task) throws Exception {
+        String previous = UserContext.getTenantId();
+        UserContext.setTenantId(tenantId);
+        try {
+            return task.run();
+        } finally {
+            UserContext.setTenantId(previous);
+        }
+    }
+
+    public static void run(String tenantId, Runnable task) {
+        call(tenantId, () -> {
+            task.run();
+            return null;
+        });
+    }
+}
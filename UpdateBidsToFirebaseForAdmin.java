@@ -1,94 +1,101 @@
 package cone.customer.api.auctionservice.services.bidhandlingservices;
 
-import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
-import com.amazonaws.services.sqs.model.SendMessageRequest;
-import com.connect1.coreusercontext.UserContext;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.firebase.database.FirebaseDatabase;
 import cone.customer.api.auctionservice.customexceptions.BidProcessingFailedException;
 import cone.customer.api.auctionservice.entity.Bid;
-import cone.customer.api.auctionservice.entity.Customer;
-import cone.customer.api.auctionservice.helper.SpringEnvironmentHelper;
 import cone.customer.api.auctionservice.model.AdminBidQueueData;
 import cone.customer.api.auctionservice.model.LiveBidModel;
-import cone.customer.api.auctionservice.repository.CustomerRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.text.SimpleDateFormat;
+import javax.annotation.PreDestroy;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Component
 @Slf4j
 public class UpdateBidsToFirebaseForAdmin {
 
     private static final String LIVE_AUCTION = "/live_auction/1";
+    private static final String BID_SUMMARY = "/bid_summary/";
 
 
-    String tenantId;
-
-    @Value("${env}")
-    private String env;
-
-    @Value("${sqs.url}")
-    private String sqsURL;
-
-    @Value("${aws.accessKey}")
-    private String awsAccessKey;
-
-    @Value("${aws.secretKey}")
-    private String awsSecretKey;
+    @Autowired
+    BuyerProfileCache buyerProfileCache;
 
+    @Autowired
+    AdminBidQueueSender adminBidQueueSender;
 
     @Autowired
-    CustomerRepository customerRepository;
+    AdminBidFeed adminBidFeed;
 
-    private AmazonSQS amazonSQS;
+    // sends the admin bids through the AdminBidQueueSender instead of the AdminBidFeed
+    @Value("${bid.admin-feed.sqs.enabled:false}")
+    private boolean queueAdminBidsToFirebase;
 
+    @Value("${bid.admin-feed.summary-interval-ms:5000}")
+    private long summaryIntervalMs;
 
-   @Async
-    public void process(LiveBidModel bidModel, Bid bid) throws BidProcessingFailedException, JsonProcessingException {
+    @Value("${bid.admin-feed.summary-write-timeout-ms:5000}")
+    private long writeTimeoutMs;
 
-        System.out.println("Inside UpdateBidsToFirebaseForAdmin");
+    // keeps the per-bid push under the firebase bids node for the consoles not yet on the AdminBidFeed
+    @Value("${bid.admin-feed.firebase-push:false}")
+    private boolean firebasePush;
 
-        log.debug("1. Starting update admin Bids into Firebase of stock_id " + bidModel.getStockId() + " of bidder" +
-                bidModel.getBidderName() + " with amount " + bidModel.getAmount());
+    // per stock of each tenant, the summary written to firebase next to the bids, which also go to the AdminBidFeed
+    private final ConcurrentHashMap<String, Map<Long, BidSummary>> summaries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Long>> changedSummaries = new ConcurrentHashMap<>();
 
-        Boolean queueAdminBidsToFirebase = Boolean.FALSE;
+    private ScheduledExecutorService summaryWriter;
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("firebase-bid-summary-");
+        threadFactory.setDaemon(true);
+        summaryWriter = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        summaryWriter.scheduleWithFixedDelay(this::writeSummaries, summaryIntervalMs, summaryIntervalMs, TimeUnit.MILLISECONDS);
+    }
 
-        if (SpringEnvironmentHelper.isLocalEnvironment())
-            tenantId = "AGRI_CARD_VGCP_1";
-        else
-            tenantId = UserContext.getTenantId();
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        summaryWriter.shutdown();
+        summaryWriter.awaitTermination(5, TimeUnit.SECONDS);
+        writeSummaries();
+    }
 
-        AWSCredentialsProvider awsCredentialsProvider = new AWSStaticCredentialsProvider(
-                new BasicAWSCredentials(awsAccessKey, awsSecretKey));
 
-        this.amazonSQS = AmazonSQSClientBuilder.standard().withCredentials(awsCredentialsProvider).build();
+    /*
+     * This method publishes an accepted bid to the admin bid feed, it is run by the PostAcceptPipeline after the bid is committed.
+     * The bid is streamed to the admin consoles by the AdminBidFeed and pushed under the firebase bids node while firebasePush
+     * is on, firebase gets the stock's bid summary every summaryIntervalMs
+     * @param bidModel - the accepted bid
+     * @param bid - the accepted bid row
+     * @param tenantId - the tenant of the bid, taken from the BidContext since the pipeline runs off the request thread
+     */
+    public void process(LiveBidModel bidModel, Bid bid, String tenantId) throws BidProcessingFailedException, JsonProcessingException {
 
-        Optional<Customer> customer = customerRepository.findById(bidModel.getCustomerId());
-        if (customer.isPresent()) {
-            bidModel.setBidderName(customer.get().getUName() + " (" + customer.get().getUVendorName()+")");
+        String bidderName = buyerProfileCache.displayName(tenantId, bidModel.getCustomerId());
+        if (bidderName != null) {
+            bidModel.setBidderName(bidderName);
         }else{
             throw new BidProcessingFailedException("Customer not found for id " + bidModel.getCustomerId());
         }
-        log.debug("Starting update admin Bids into Firebase of stock_id " + bidModel.getStockId() + " of bidder" +
-                bidModel.getBidderName() + " with amount " + bidModel.getAmount());
+        log.debug("Starting update admin Bids into Firebase of stock_id {} of bidder {} with amount {}",
+                bidModel.getStockId(), bidModel.getBidderName(), bidModel.getAmount());
 
         Map<String, Object> mapBid = createBidDataForFirebaseForAdmin(bidModel, bid);
 
         String firebaseNode = tenantId + LIVE_AUCTION;
-        String stockIdString = bidModel.getStockId().toString();
 
         AdminBidQueueData adminBidQueueData = new AdminBidQueueData();
         adminBidQueueData.setMapBid(mapBid);
@@ -98,35 +105,37 @@ public class UpdateBidsToFirebaseForAdmin {
 
         if (queueAdminBidsToFirebase) {
             log.debug("Adding bid to queue");
-            addToQueue(adminBidQueueData);
+            addToQueue(adminBidQueueData, tenantId);
         } else {
-            FirebaseDatabase.getInstance().getReference(firebaseNode).child("bids/" + stockIdString)
-                    .push().setValueAsync(mapBid);
+            if (firebasePush) {
+                FirebaseInsertForAdminBidsFromQueue(adminBidQueueData);
+            }
+            adminBidFeed.publish(tenantId, bidModel.getStockId(), AdminBidFeed.ACCEPTED, mapBid);
+            summaries.computeIfAbsent(tenantId, id -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(bidModel.getStockId(), stockId -> new BidSummary(firebaseNode + BID_SUMMARY + stockId))
+                    .add(bidModel, String.valueOf(mapBid.get("bid_received_date")));
+            changedStocks(tenantId).add(bidModel.getStockId());
         }
 
 
 
-        log.debug("Completed update admin Bids into Firebase of stock_id " + bidModel.getStockId() + " of bidder" + bidModel.getBidderName() + " with amount " + bidModel.getAmount());
+        log.debug("Completed update admin Bids into Firebase of stock_id {} of bidder {} with amount {}",
+                bidModel.getStockId(), bidModel.getBidderName(), bidModel.getAmount());
     }
 
     private Map<String, Object> createBidDataForFirebaseForAdmin(LiveBidModel bidModel, Bid bid) {
 
-        if (SpringEnvironmentHelper.isLocalEnvironment())
-            tenantId = "AGRI_CARD_VGCP_1";
-        else
-            tenantId = UserContext.getTenantId();
-
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String now = BidTimestamps.format(Instant.now());
 
-        Map<String, Object> mapBid = new HashMap<>();
+        // 10 entries, sized so the map never resizes
+        Map<String, Object> mapBid = new HashMap<>(16);
         mapBid.put("bid_id", bid.getId());
         mapBid.put("stock_id", bid.getStockId());
         mapBid.put("price", bid.getAmount());
         mapBid.put("bidding_date", String.valueOf(bidModel.getBidDate()));
         mapBid.put("bidder_name", bidModel.getBidderName());
-        mapBid.put("bid_submission_date",dateFormat.format(new Date()));
-        mapBid.put("bid_received_date", dateFormat.format(new Date()));
+        mapBid.put("bid_submission_date", now);
+        mapBid.put("bid_received_date", now);
         mapBid.put("approved_yn", bid.getApprovedYn());
         mapBid.put("buyer_id", bidModel.getCustomerId());
         mapBid.put("bid_desk_no", bidModel.getBid_desk_no());
@@ -134,33 +143,109 @@ public class UpdateBidsToFirebaseForAdmin {
         return mapBid;
     }
 
-    private void addToQueue(AdminBidQueueData adminBidQueueData) throws JsonProcessingException {
+    private void addToQueue(AdminBidQueueData adminBidQueueData, String tenantId) {
 
         log.debug("Adding bid to queue");
 
-        if (SpringEnvironmentHelper.isLocalEnvironment())
-            tenantId = "AGRI_CARD_VGCP_1";
-        else
-            tenantId = UserContext.getTenantId();
-
-        String queueURL = sqsURL + tenantId + "_" + env + "_rejected.fifo";
-
-        log.debug("queueURL: " + queueURL);
+        adminBidQueueSender.enqueue(tenantId, adminBidQueueData);
 
+        log.debug("Added bid to queue");
+    }
 
-        SendMessageRequest messageRequest = new SendMessageRequest();
-        messageRequest.setMessageBody(new ObjectMapper().writeValueAsString(adminBidQueueData));
-        messageRequest.setQueueUrl(queueURL);
-        messageRequest.setMessageGroupId("bids-for-admin");
+    /*
+     * This method writes the last summary of a stock whose auction is closed and drops it
+     * @param tenantId - the tenant of the stock
+     * @param stockId - the closed stock
+     */
+    public void evict(String tenantId, Long stockId) {
+        if (changedStocks(tenantId).contains(stockId)) {
+            writeSummaries();
+        }
+        Map<Long, BidSummary> tenantSummaries = summaries.get(tenantId);
+        if (tenantSummaries != null) {
+            tenantSummaries.remove(stockId);
+        }
+    }
 
-        // getQueue(amazonSQS, bidModel.getOrgId());
-        amazonSQS.sendMessage(messageRequest);
+    /*
+     * This method writes the summaries of the stocks that got bids since the last write with one multi-path update,
+     * the summary paths are under each tenant's node
+     */
+    synchronized void writeSummaries() {
+        Map<String, List<Long>> changed = new HashMap<>();
+        int stockCount = 0;
+        for (Map.Entry<String, Set<Long>> tenant : changedSummaries.entrySet()) {
+            Iterator<Long> iterator = tenant.getValue().iterator();
+            while (iterator.hasNext()) {
+                changed.computeIfAbsent(tenant.getKey(), id -> new ArrayList<>()).add(iterator.next());
+                iterator.remove();
+                stockCount++;
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        Map<String, Object> updates = new HashMap<>(stockCount * 8);
+        changed.forEach((tenantId, stockIds) -> {
+            Map<Long, BidSummary> tenantSummaries = summaries.getOrDefault(tenantId, Collections.emptyMap());
+            for (Long stockId : stockIds) {
+                BidSummary summary = tenantSummaries.get(stockId);
+                if (summary != null) {
+                    summary.addTo(updates);
+                }
+            }
+        });
+        try {
+            FirebaseDatabase.getInstance().getReference().updateChildrenAsync(updates).get(writeTimeoutMs, TimeUnit.MILLISECONDS);
+            log.debug("Wrote admin bid summaries of {} stocks to Firebase", stockCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            changed.forEach((tenantId, stockIds) -> changedStocks(tenantId).addAll(stockIds));
+        } catch (Exception e) {
+            log.error("Writing admin bid summaries of " + stockCount + " stocks to Firebase failed with error: " + e.getMessage());
+            changed.forEach((tenantId, stockIds) -> changedStocks(tenantId).addAll(stockIds));
+        }
+    }
 
-        log.debug("Added bid to queue");
+    private Set<Long> changedStocks(String tenantId) {
+        return changedSummaries.computeIfAbsent(tenantId, id -> ConcurrentHashMap.newKeySet());
     }
 
     public void FirebaseInsertForAdminBidsFromQueue(AdminBidQueueData adminBidQueueData) throws JsonProcessingException {
         FirebaseDatabase.getInstance().getReference(adminBidQueueData.getFirebaseNode()).child("bids/" + adminBidQueueData.getStockId())
                 .push().setValueAsync(adminBidQueueData.getMapBid());
     }
+
+    /*
+     * The bids accepted on a stock since its summary was created on this node, and the last (highest) of them
+     */
+    private static final class BidSummary {
+
+        private final String path;
+        private long bidCount;
+        private Integer highestPrice;
+        private Long buyerId;
+        private String bidderName;
+        private String lastBidDate;
+
+        private BidSummary(String path) {
+            this.path = path;
+        }
+
+        synchronized void add(LiveBidModel bidModel, String bidDate) {
+            bidCount++;
+            highestPrice = bidModel.getAmount();
+            buyerId = bidModel.getCustomerId();
+            bidderName = bidModel.getBidderName();
+            lastBidDate = bidDate;
+        }
+
+        synchronized void addTo(Map<String, Object> updates) {
+            updates.put(path + "/bid_count", bidCount);
+            updates.put(path + "/highest_price", highestPrice);
+            updates.put(path + "/buyer_id", buyerId);
+            updates.put(path + "/bidder_name", bidderName);
+            updates.put(path + "/last_bid_date", lastBidDate);
+        }
+    }
 }
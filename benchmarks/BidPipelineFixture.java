@@ -0,0 +1,374 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.entity.HighestBid;
+import cone.customer.api.auctionservice.entity.MvtLaBuyers;
+import cone.customer.api.auctionservice.entity.Stock;
+import cone.customer.api.auctionservice.eventpublishers.BidPlacedEventPublisher;
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.api.auctionservice.repository.*;
+import cone.customer.api.auctionservice.services.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ReflectionUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/*
+ * Wires LiveBidServicesV3 with the real validator, processor and in-memory engines of this package and with
+ * in-memory stand-ins (Mockito) for the repositories, Firebase publishers, SQS and the other services,
+ * so the bid pipeline can be driven on a plain box without a database, Firebase or AWS.
+ *
+ * Stocks start with a highest bid of startingAmount held by customer 0 and are seller-owned by customer -1.
+ * Every buyer has an effectively unlimited bid limit. Run with the local environment flag read by SpringEnvironmentHelper
+ * so tenant and bidder are taken from the bid model.
+ */
+public class BidPipelineFixture {
+
+    public final LiveBidServicesV3 liveBidServices = new LiveBidServicesV3();
+
+    final BidValidator bidValidator = new BidValidator();
+    final BidProcessor bidProcessor = new BidProcessor();
+    final BidSequencer bidSequencer = new BidSequencer();
+    final BidAsyncServices bidAsyncServices = new BidAsyncServices();
+    final RejectBidSink rejectBidSink = new RejectBidSink();
+    final LiveOrderBook liveOrderBook = new LiveOrderBook();
+    final OrderBookLease orderBookLease = new OrderBookLease();
+    final BuyerExposureLedger buyerExposureLedger = new BuyerExposureLedger();
+    final BidSettingsCache bidSettingsCache = new BidSettingsCache();
+    final MarginReservationEngine marginReservationEngine = new MarginReservationEngine();
+    final BidStageMetrics bidStageMetrics = new BidStageMetrics();
+    final AuctionStateCache auctionStateCache = new AuctionStateCache();
+    final BuyerProfileCache buyerProfileCache = new BuyerProfileCache();
+    final BidDeduplicator bidDeduplicator = new BidDeduplicator();
+    final PostAcceptPipeline postAcceptPipeline = new PostAcceptPipeline();
+    final AutoBidEngine autoBidEngine = new AutoBidEngine();
+    final BidRouter bidRouter = new BidRouter();
+    final BidAdmissionController bidAdmissionController = new BidAdmissionController();
+    final AdminBidFeed adminBidFeed = new AdminBidFeed();
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    final StockRepository stockRepository = stub(StockRepository.class);
+    final HighestBidRepository highestBidRepository = stub(HighestBidRepository.class);
+    final BidRepository bidRepository = stub(BidRepository.class);
+    final MvtLaBuyersDAO mvtLaBuyersDAO = stub(MvtLaBuyersDAO.class);
+    final CustomerMarginRepository customerMarginRepository = stub(CustomerMarginRepository.class);
+    final StockItemRepository stockItemRepository = stub(StockItemRepository.class);
+    final SettingsService settingsService = stub(SettingsService.class);
+    final EntityManager entityManager = stub(EntityManager.class);
+
+    private final Map<Long, Stock> stocks = new ConcurrentHashMap<>();
+    private final int startingAmount;
+    private final File spillFile;
+
+    public BidPipelineFixture(int startingAmount) throws IOException {
+        this(startingAmount, null, null, new InProcessBidForwarder());
+    }
+
+    /*
+     * Builds one node of an in-process cluster, every node of the cluster shares the forwarder
+     * @param nodeId - the id of this node
+     * @param clusterNodes - the ids of every node of the cluster, this node included
+     * @param forwarder - the forwarder shared by the nodes
+     */
+    public BidPipelineFixture(int startingAmount, String nodeId, List<String> clusterNodes, InProcessBidForwarder forwarder) throws IOException {
+        this.startingAmount = startingAmount;
+        this.spillFile = File.createTempFile("reject-bids", ".spill");
+        stubRepositories();
+        wire();
+        inject(liveBidServices, "bidForwarder", forwarder);
+        if (nodeId != null) {
+            inject(bidRouter, "enabled", true);
+            inject(marginReservationEngine, "clusterEnabled", true);
+            inject(bidRouter, "nodeId", nodeId);
+            inject(bidRouter, "members", clusterNodes.stream().map(node -> node + "=in-process").collect(Collectors.joining(",")));
+            forwarder.register(nodeId, liveBidServices);
+        }
+        start();
+    }
+
+    /*
+     * This method builds a bid for the given stock, customer and amount
+     */
+    public static LiveBidModel bid(long stockId, long customerId, int amount) {
+        LiveBidModel bidModel = new LiveBidModel();
+        bidModel.setStockId(stockId);
+        bidModel.setCustomerId(customerId);
+        bidModel.setAmount(amount);
+        bidModel.setQuantity(1);
+        bidModel.setBidDate(Instant.now().toString());
+        return bidModel;
+    }
+
+    public HighestBidSnapshot highestBid(long stockId) {
+        return liveOrderBook.get(BidContext.currentTenantId(), stockId);
+    }
+
+    public void close() throws InterruptedException {
+        postAcceptPipeline.stop();
+        auctionStateCache.stop();
+        buyerProfileCache.stop();
+        liveOrderBook.stop();
+        marginReservationEngine.stop();
+        buyerExposureLedger.stop();
+        rejectBidSink.stop();
+        spillFile.delete();
+    }
+
+    private void stubRepositories() {
+        when(stockRepository.findById(anyLong())).thenAnswer(invocation -> Optional.of(stock(invocation.getArgument(0))));
+        when(stockRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<Stock> found = new ArrayList<>();
+            for (Long stockId : invocation.<Iterable<Long>>getArgument(0)) {
+                found.add(stock(stockId));
+            }
+            return found;
+        });
+        when(stockRepository.findStockStatusById(anyLong())).thenReturn("AuctionStarted");
+        when(highestBidRepository.getByStockId(anyLong())).thenAnswer(invocation -> {
+            HighestBid highestBid = new HighestBid();
+            highestBid.setStockId(invocation.getArgument(0));
+            highestBid.setCustomerId(0L);
+            highestBid.setAmount(startingAmount);
+            highestBid.setQuantity(1);
+            return highestBid;
+        });
+        // buyers hold no lots when their exposure is first seeded
+        @SuppressWarnings("unchecked")
+        TypedQuery<Number> dailyTotal = stub(TypedQuery.class);
+        when(dailyTotal.setParameter(anyString(), any())).thenReturn(dailyTotal);
+        when(dailyTotal.getSingleResult()).thenReturn(0L);
+        when(entityManager.createQuery(anyString(), eq(Number.class))).thenReturn(dailyTotal);
+        when(bidRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(bidRepository.saveAll(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mvtLaBuyersDAO.findById(anyLong())).thenReturn(Optional.of(mock(MvtLaBuyers.class, withSettings().stubOnly().defaultAnswer(unlimitedNumbers()))));
+        when(settingsService.getByKeyName1(BidSettingsCache.ALLOW_SELLER_BIDDING_KEY)).thenReturn("N");
+        when(settingsService.marginEnabled()).thenReturn(false);
+    }
+
+    private Stock stock(Long stockId) {
+        return stocks.computeIfAbsent(stockId, id -> {
+            Stock stock = new Stock();
+            stock.setId(id);
+            stock.setCustomerId(-1L);
+            return stock;
+        });
+    }
+
+    private void wire() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new NoOpTransactionManager());
+
+        inject(liveBidServices, "bidValidator", bidValidator);
+        inject(liveBidServices, "bidProcessor", bidProcessor);
+        inject(liveBidServices, "stockRepository", stockRepository);
+        inject(liveBidServices, "bidSequencer", bidSequencer);
+        inject(liveBidServices, "transactionTemplate", transactionTemplate);
+        inject(liveBidServices, "marginReservationEngine", marginReservationEngine);
+        inject(liveBidServices, "bidStageMetrics", bidStageMetrics);
+        inject(liveBidServices, "bidDeduplicator", bidDeduplicator);
+        inject(liveBidServices, "bidDeskAuthorizer", new BidDeskAuthorizer());
+        inject(liveBidServices, "maxBatchSize", 200);
+        inject(liveBidServices, "taskExecutor", ForkJoinPool.commonPool());
+        inject(liveBidServices, "autoBidEngine", autoBidEngine);
+        inject(liveBidServices, "liveOrderBook", liveOrderBook);
+        inject(liveBidServices, "bidRouter", bidRouter);
+        inject(liveBidServices, "bidAdmissionController", bidAdmissionController);
+
+        inject(bidRouter, "bidSequencer", bidSequencer);
+        inject(bidRouter, "liveOrderBook", liveOrderBook);
+        inject(bidRouter, "bidDeduplicator", bidDeduplicator);
+        inject(bidRouter, "autoBidEngine", autoBidEngine);
+        inject(bidRouter, "enabled", false);
+        inject(bidRouter, "virtualNodes", 128);
+
+        inject(autoBidEngine, "proxyBidRegistrationRepository", stub(ProxyBidRegistrationRepository.class));
+        inject(autoBidEngine, "transactionTemplate", transactionTemplate);
+        inject(autoBidEngine, "defaultIncrement", 1);
+
+        inject(bidAdmissionController, "meterRegistry", meterRegistry);
+        inject(bidAdmissionController, "enabled", true);
+        inject(bidAdmissionController, "targetLatencyMs", 250L);
+        inject(bidAdmissionController, "backoffRatio", 0.9);
+        inject(bidAdmissionController, "queueWaitMs", 50L);
+        inject(bidAdmissionController, "stockInitialLimit", 4);
+        inject(bidAdmissionController, "stockMinLimit", 1);
+        inject(bidAdmissionController, "stockMaxLimit", 32);
+        inject(bidAdmissionController, "tenantInitialLimit", 128);
+        inject(bidAdmissionController, "tenantMinLimit", 8);
+        inject(bidAdmissionController, "tenantMaxLimit", 1024);
+
+        inject(bidDeduplicator, "meterRegistry", meterRegistry);
+        inject(bidDeduplicator, "windowMs", 60_000L);
+        inject(bidDeduplicator, "perStockCapacity", 1024);
+        inject(bidDeduplicator, "waitMs", 10_000L);
+
+        inject(bidValidator, "bidAsyncServices", bidAsyncServices);
+        inject(bidValidator, "bidSettingsCache", bidSettingsCache);
+        inject(bidValidator, "buyerProfileCache", buyerProfileCache);
+        inject(bidValidator, "liveOrderBook", liveOrderBook);
+        inject(bidValidator, "buyerExposureLedger", buyerExposureLedger);
+        inject(bidValidator, "marginReservationEngine", marginReservationEngine);
+        inject(bidValidator, "auctionStateCache", auctionStateCache);
+
+        inject(buyerProfileCache, "mvtLaBuyersDAO", mvtLaBuyersDAO);
+        inject(buyerProfileCache, "customerRepository", stub(CustomerRepository.class));
+        inject(buyerProfileCache, "meterRegistry", meterRegistry);
+        inject(buyerProfileCache, "maxEntries", 20_000);
+        inject(buyerProfileCache, "ttlMs", 600_000L);
+
+        inject(auctionStateCache, "stockRepository", stockRepository);
+        inject(auctionStateCache, "liveOrderBook", liveOrderBook);
+        inject(auctionStateCache, "marginReservationEngine", marginReservationEngine);
+        inject(auctionStateCache, "bidDeduplicator", bidDeduplicator);
+        inject(auctionStateCache, "autoBidEngine", autoBidEngine);
+        inject(auctionStateCache, "bidRouter", bidRouter);
+        inject(auctionStateCache, "bidAdmissionController", bidAdmissionController);
+        inject(auctionStateCache, "adminBidFeed", adminBidFeed);
+        inject(auctionStateCache, "buyerProfileCache", buyerProfileCache);
+        inject(auctionStateCache, "updateBidsToFirebaseForAdmin", stub(UpdateBidsToFirebaseForAdmin.class));
+        inject(auctionStateCache, "ttlMs", 2_000L);
+        inject(auctionStateCache, "sweepIntervalMs", 30_000L);
+
+        inject(bidProcessor, "bidRepository", bidRepository);
+        inject(bidProcessor, "liveOrderBook", liveOrderBook);
+        inject(bidProcessor, "buyerExposureLedger", buyerExposureLedger);
+        inject(bidProcessor, "marginReservationEngine", marginReservationEngine);
+        inject(bidProcessor, "auctionStateCache", auctionStateCache);
+        inject(bidProcessor, "autoBidService", stub(AutoBidService.class));
+        inject(bidProcessor, "stockActiveBidderService", stub(StockActiveBidderService.class));
+        inject(bidProcessor, "bidPlacedEventPublisher", stub(BidPlacedEventPublisher.class));
+        inject(bidProcessor, "updateBidsToFirebaseForAdmin", stub(UpdateBidsToFirebaseForAdmin.class));
+        inject(bidProcessor, "highestBidFirebasePublisher", stub(HighestBidFirebasePublisher.class));
+        inject(bidProcessor, "postAcceptPipeline", postAcceptPipeline);
+        inject(bidProcessor, "autoBidEngine", autoBidEngine);
+
+        inject(postAcceptPipeline, "meterRegistry", meterRegistry);
+        inject(postAcceptPipeline, "threadsPerStep", 1);
+        inject(postAcceptPipeline, "queueCapacity", 10_000);
+
+        inject(bidStageMetrics, "meterRegistry", meterRegistry);
+
+        inject(bidAsyncServices, "rejectBidSink", rejectBidSink);
+        inject(bidAsyncServices, "adminBidFeed", adminBidFeed);
+
+        inject(adminBidFeed, "bufferSize", 256);
+        inject(adminBidFeed, "frameIntervalMs", 100L);
+        inject(adminBidFeed, "maxEventsPerFrame", 500);
+        inject(adminBidFeed, "emitterTimeoutMs", 1_800_000L);
+
+        inject(rejectBidSink, "bidRepository", bidRepository);
+        inject(rejectBidSink, "meterRegistry", meterRegistry);
+        inject(rejectBidSink, "capacity", 100_000);
+        inject(rejectBidSink, "batchSize", 500);
+        inject(rejectBidSink, "flushIntervalMs", 200L);
+        inject(rejectBidSink, "offerTimeoutMs", 20L);
+        inject(rejectBidSink, "spillFile", spillFile.getAbsolutePath());
+
+        inject(liveOrderBook, "highestBidRepository", highestBidRepository);
+        inject(liveOrderBook, "transactionTemplate", transactionTemplate);
+        inject(liveOrderBook, "flushIntervalMs", 100L);
+        inject(liveOrderBook, "orderBookLease", orderBookLease);
+
+        // every fixture node owns its own books, the lease only guards against several non-cluster nodes on one database
+        inject(orderBookLease, "enabled", false);
+
+        inject(buyerExposureLedger, "entityManager", entityManager);
+        inject(buyerExposureLedger, "reconcileIntervalMs", 60_000L);
+
+        inject(bidSettingsCache, "settingsService", settingsService);
+        inject(bidSettingsCache, "ttlMs", 30_000L);
+
+        inject(marginReservationEngine, "customerMarginRepository", customerMarginRepository);
+        inject(marginReservationEngine, "stockItemRepository", stockItemRepository);
+        inject(marginReservationEngine, "transactionTemplate", transactionTemplate);
+        inject(marginReservationEngine, "entityManager", entityManager);
+        inject(marginReservationEngine, "flushIntervalMs", 500L);
+        inject(marginReservationEngine, "refreshIntervalMs", 5_000L);
+        inject(marginReservationEngine, "clusterEnabled", false);
+
+        inject(bidSequencer, "laneTimeoutMs", 5_000L);
+    }
+
+    private void start() {
+        orderBookLease.start();
+        buyerProfileCache.start();
+        auctionStateCache.start();
+        bidDeduplicator.start();
+        postAcceptPipeline.start();
+        bidRouter.start();
+        bidAdmissionController.start();
+        adminBidFeed.start();
+        rejectBidSink.start();
+        liveOrderBook.start();
+        buyerExposureLedger.start();
+        marginReservationEngine.start();
+    }
+
+    /*
+     * Stub-only mocks do not record invocations, so they do not grow over millions of bids
+     */
+    static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    static void inject(Object target, String fieldName, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), fieldName);
+        if (field == null) {
+            throw new IllegalArgumentException(target.getClass().getSimpleName() + " has no field " + fieldName);
+        }
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    /*
+     * Answers every numeric getter with a value large enough to never limit a bid, whatever its boxed type
+     */
+    private static Answer<Object> unlimitedNumbers() {
+        return invocation -> {
+            Class<?> type = invocation.getMethod().getReturnType();
+            if (type == Integer.class || type == int.class) {
+                return Integer.MAX_VALUE / 2;
+            } else if (type == Long.class || type == long.class) {
+                return Long.MAX_VALUE / 2;
+            } else if (type == Double.class || type == double.class) {
+                return 1e15;
+            }
+            return RETURNS_DEFAULTS.answer(invocation);
+        };
+    }
+
+    private static final class NoOpTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.utils.models.CommonResponseModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.ResponseEntity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Replays a recorded bid stream, or a generated one, against LiveBidServicesV3.init over the stubbed pipeline of
+ * BidPipelineFixture and reports throughput, latency percentiles and the count of every outcome (AC/LB/SB/OL/ER).
+ *
+ * A recorded stream is a JSONL file, one bid per line:
+ *   {"atMs":0,"tenantId":"AGRI_CARD_VGCP_1","stockId":12,"customerId":7,"amount":1050,"quantity":1,"autobid":false}
+ * atMs is the offset of the bid from the start of the recording. Without --file a stream is generated.
+ *
+ * Options (--name=value):
+ *   file         recorded stream to replay
+ *   compression  replay speed-up, 10 replays a 10 minute recording in one minute (default 1)
+ *   threads      concurrent bidders (default 64)
+ *   bids         generated bids (default 200000)
+ *   rate         generated bids per second before compression (default 2000)
+ *   stocks       lots of the generated auction (default 500)
+ *   hot-stocks   lots receiving hot-share of the generated bids (default 5)
+ *   hot-share    share of generated bids on the hot lots (default 0.5)
+ *   low-share    share of generated bids below the highest bid (default 0.2)
+ *   tenants      generated tenant mix as tenant:weight,... (default AGRI_CARD_VGCP_1:1)
+ *
+ * The fixture runs with the local environment flag, so every bid is placed as the local tenant; the tenant of each bid is
+ * only reported. Latency is measured from the time a bid was due, so a saturated pipeline shows up as latency.
+ *
+ * Run with: java -cp <benchmark classpath> cone.customer.api.auctionservice.services.bidhandlingservices.BidReplayHarness --compression=10
+ */
+public class BidReplayHarness {
+
+    private static final int STARTING_AMOUNT = 1_000;
+    private static final int CUSTOMERS = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "true");
+        }
+        double compression = Double.parseDouble(options.getOrDefault("compression", "1"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "64"));
+
+        List<ReplayBid> stream = options.containsKey("file") ? read(options.get("file")) : generate(options);
+        System.out.println("Replaying " + stream.size() + " bids at " + compression + "x with " + threads + " threads");
+
+        BidPipelineFixture fixture = new BidPipelineFixture(STARTING_AMOUNT);
+        try {
+            new BidReplayHarness(fixture, threads, compression).replay(stream);
+        } finally {
+            fixture.close();
+        }
+    }
+
+    private final BidPipelineFixture fixture;
+    private final int threads;
+    private final double compression;
+    private final Map<String, LongAdder> bidsPerTenant = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> responsesPerStatus = new ConcurrentHashMap<>();
+    private final LongAdder failures = new LongAdder();
+
+    BidReplayHarness(BidPipelineFixture fixture, int threads, double compression) {
+        this.fixture = fixture;
+        this.threads = threads;
+        this.compression = compression;
+    }
+
+    void replay(List<ReplayBid> stream) throws InterruptedException {
+        ExecutorService bidders = Executors.newFixedThreadPool(threads);
+        AtomicLongArray latencies = new AtomicLongArray(stream.size());
+        long firstAtMs = stream.isEmpty() ? 0 : stream.get(0).atMs;
+        long startNanos = System.nanoTime();
+
+        for (int i = 0; i < stream.size(); i++) {
+            ReplayBid replayBid = stream.get(i);
+            long dueNanos = startNanos + (long) ((replayBid.atMs - firstAtMs) * 1_000_000 / compression);
+            long waitNanos = dueNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            int index = i;
+            bidders.execute(() -> {
+                bidsPerTenant.computeIfAbsent(String.valueOf(replayBid.tenantId), t -> new LongAdder()).increment();
+                try {
+                    ResponseEntity<CommonResponseModel> response = fixture.liveBidServices.init(replayBid.toBidModel(), replayBid.autobid);
+                    responsesPerStatus.computeIfAbsent(response.getStatusCodeValue(), s -> new LongAdder()).increment();
+                } catch (Exception e) {
+                    failures.increment();
+                }
+                latencies.set(index, System.nanoTime() - dueNanos);
+            });
+        }
+        bidders.shutdown();
+        bidders.awaitTermination(1, TimeUnit.HOURS);
+        report(stream.size(), System.nanoTime() - startNanos, latencies);
+    }
+
+    private void report(int bids, long elapsedNanos, AtomicLongArray latencies) {
+        long[] sorted = new long[latencies.length()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+
+        System.out.printf("%nBids: %d in %.1f s, %.0f bids/s%n", bids, elapsedNanos / 1e9, bids / (elapsedNanos / 1e9));
+        System.out.printf("Latency ms  p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 1.0));
+        System.out.println("Outcomes:");
+        for (Timer timer : fixture.meterRegistry.find(BidStageMetrics.METRIC_NAME).tag("stage", "bid").timers()) {
+            System.out.printf("  %-3s %d%n", timer.getId().getTag("outcome"), timer.count());
+        }
+        System.out.println("HTTP status: " + responsesPerStatus + ", exceptions: " + failures.sum());
+        System.out.print("Shed by admission control:");
+        for (Counter counter : fixture.meterRegistry.find("bid.admission.shed").counters()) {
+            System.out.printf(" %s=%d", counter.getId().getTag("reason"), (long) counter.count());
+        }
+        System.out.println();
+        System.out.println("Bids per tenant: " + bidsPerTenant);
+        System.out.println("Reject sink queue depth: " + fixture.rejectBidSink.queueDepth());
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private static List<ReplayBid> read(String file) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        List<ReplayBid> stream = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    stream.add(objectMapper.readValue(line, ReplayBid.class));
+                }
+            }
+        }
+        stream.sort(Comparator.comparingLong(replayBid -> replayBid.atMs));
+        return stream;
+    }
+
+    private static List<ReplayBid> generate(Map<String, String> options) {
+        int bids = Integer.parseInt(options.getOrDefault("bids", "200000"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "2000"));
+        int stocks = Integer.parseInt(options.getOrDefault("stocks", "500"));
+        int hotStocks = Math.min(stocks, Integer.parseInt(options.getOrDefault("hot-stocks", "5")));
+        double hotShare = Double.parseDouble(options.getOrDefault("hot-share", "0.5"));
+        double lowShare = Double.parseDouble(options.getOrDefault("low-share", "0.2"));
+
+        List<String> tenants = new ArrayList<>();
+        for (String tenant : options.getOrDefault("tenants", "AGRI_CARD_VGCP_1:1").split(",")) {
+            String[] weighted = tenant.split(":");
+            int weight = weighted.length > 1 ? Integer.parseInt(weighted[1]) : 1;
+            for (int i = 0; i < weight; i++) {
+                tenants.add(weighted[0]);
+            }
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        AtomicInteger[] prices = new AtomicInteger[stocks + 1];
+        for (int i = 0; i <= stocks; i++) {
+            prices[i] = new AtomicInteger(STARTING_AMOUNT);
+        }
+        List<ReplayBid> stream = new ArrayList<>(bids);
+        for (int i = 0; i < bids; i++) {
+            ReplayBid replayBid = new ReplayBid();
+            replayBid.atMs = (long) (i * 1000 / rate);
+            replayBid.tenantId = tenants.get(random.nextInt(tenants.size()));
+            replayBid.stockId = random.nextDouble() < hotShare ? 1 + random.nextInt(hotStocks) : 1 + random.nextInt(stocks);
+            replayBid.customerId = 1 + random.nextInt(CUSTOMERS);
+            int price = prices[(int) replayBid.stockId].get();
+            replayBid.amount = random.nextDouble() < lowShare
+                    ? random.nextInt(1, price)
+                    : prices[(int) replayBid.stockId].addAndGet(1 + random.nextInt(5));
+            replayBid.quantity = 1;
+            stream.add(replayBid);
+        }
+        return stream;
+    }
+
+    /*
+     * One line of a recorded bid stream
+     */
+    public static class ReplayBid {
+
+        public long atMs;
+        public String tenantId;
+        public long stockId;
+        public long customerId;
+        public int amount;
+        public int quantity = 1;
+        public boolean autobid;
+
+        LiveBidModel toBidModel() {
+            LiveBidModel bidModel = BidPipelineFixture.bid(stockId, customerId, amount);
+            bidModel.setQuantity(quantity);
+            return bidModel;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.utils.models.CommonResponseModel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+ * Throughput, latency percentiles (SampleTime) and, with the gc profiler, bytes allocated per bid of
+ * LiveBidServicesV3.init over the stubbed pipeline of BidPipelineFixture.
+ *
+ *  singleStockContention - every thread outbids the others on one stock, all bids queue on one lane
+ *  manyStockSpread       - accepted bids spread over `stocks` stocks
+ *  rejectHeavy           - bids below the current highest bid, answered with LB
+ *  acceptHeavyMix        - on hot stocks 1 in `rejectEvery` bids is a low bid, the rest are accepted
+ *
+ * Run with: java -cp <benchmark classpath> cone.customer.api.auctionservice.services.bidhandlingservices.LiveBidPipelineBenchmark [threads]
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LiveBidPipelineBenchmark {
+
+    private static final int STARTING_AMOUNT = 1_000;
+    private static final int CUSTOMERS = 500;
+
+    @State(Scope.Benchmark)
+    public static class Pipeline {
+
+        @Param({"1000"})
+        int stocks;
+
+        @Param({"10"})
+        int rejectEvery;
+
+        BidPipelineFixture fixture;
+        AtomicIntegerArray nextAmounts;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            fixture = new BidPipelineFixture(STARTING_AMOUNT);
+            nextAmounts = new AtomicIntegerArray(stocks + 1);
+            for (int i = 0; i <= stocks; i++) {
+                nextAmounts.set(i, STARTING_AMOUNT);
+            }
+            for (long stockId = 0; stockId <= stocks; stockId++) {
+                fixture.highestBid(stockId);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            fixture.close();
+        }
+
+        LiveBidModel outbid(int stockId) {
+            return BidPipelineFixture.bid(stockId, customer(), nextAmounts.incrementAndGet(stockId));
+        }
+
+        LiveBidModel lowBid(int stockId) {
+            return BidPipelineFixture.bid(stockId, customer(), ThreadLocalRandom.current().nextInt(1, STARTING_AMOUNT));
+        }
+
+        private long customer() {
+            return 1 + ThreadLocalRandom.current().nextInt(CUSTOMERS);
+        }
+    }
+
+    @Benchmark
+    public ResponseEntity<CommonResponseModel> singleStockContention(Pipeline pipeline) throws Exception {
+        return pipeline.fixture.liveBidServices.init(pipeline.outbid(0), true);
+    }
+
+    @Benchmark
+    public ResponseEntity<CommonResponseModel> manyStockSpread(Pipeline pipeline) throws Exception {
+        int stockId = 1 + ThreadLocalRandom.current().nextInt(pipeline.stocks);
+        return pipeline.fixture.liveBidServices.init(pipeline.outbid(stockId), true);
+    }
+
+    @Benchmark
+    public ResponseEntity<CommonResponseModel> rejectHeavy(Pipeline pipeline) throws Exception {
+        int stockId = 1 + ThreadLocalRandom.current().nextInt(pipeline.stocks);
+        return pipeline.fixture.liveBidServices.init(pipeline.lowBid(stockId), true);
+    }
+
+    @Benchmark
+    public ResponseEntity<CommonResponseModel> acceptHeavyMix(Pipeline pipeline) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int stockId = 1 + random.nextInt(Math.min(10, pipeline.stocks));
+        LiveBidModel bidModel = random.nextInt(pipeline.rejectEvery) == 0 ? pipeline.lowBid(stockId) : pipeline.outbid(stockId);
+        return pipeline.fixture.liveBidServices.init(bidModel, true);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        Options options = new OptionsBuilder()
+                .include(LiveBidPipelineBenchmark.class.getSimpleName())
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,56 @@
+package cone.customer.api.auctionservice.controllers;
+
+import cone.customer.api.auctionservice.services.bidhandlingservices.AdminBidFeed;
+import cone.customer.api.auctionservice.services.bidhandlingservices.AuctionStateCache;
+import cone.customer.api.auctionservice.services.bidhandlingservices.BidContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.servlet.http.HttpServletRequest;
+
+/*
+ * The server-sent event endpoint of the AdminBidFeed. Only a user in the admin role (bid.admin-feed.role) is subscribed,
+ * to the stock of the tenant of its own request and only while the stock's auction is running
+ */
+@RestController
+public class AdminBidFeedController {
+
+    @Autowired
+    AdminBidFeed adminBidFeed;
+
+    @Autowired
+    AuctionStateCache auctionStateCache;
+
+    @Value("${bid.admin-feed.role:ADMIN}")
+    private String adminRole;
+
+    /*
+     * This method subscribes an admin console to the live bids of a stock
+     * @param stockId - the stock to follow
+     * @param lastEventId - the SSE Last-Event-ID sent by a reconnecting console, null on the first connection
+     * @param request - the console's request, whose user must be in the admin role
+     * @return ResponseEntity<SseEmitter> - the event stream, 403 if the user is not an admin, 404 if the stock of the
+     * tenant is not in a running auction
+     */
+    @GetMapping(value = "${bid.admin-feed.path:/admin/live-bids/{stockId}/feed}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribe(@PathVariable Long stockId,
+                                                @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                                HttpServletRequest request) {
+        if (!request.isUserInRole(adminRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        String tenantId = BidContext.currentTenantId();
+        if (tenantId == null || !auctionStateCache.get(tenantId, stockId).isRunning()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok(adminBidFeed.subscribe(tenantId, stockId, lastEventId));
+    }
+}
@@ -0,0 +1,33 @@
+package cone.customer.api.auctionservice.controllers;
+
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.api.auctionservice.services.bidhandlingservices.LiveBidServicesV3;
+import cone.customer.utils.models.CommonResponseModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/*
+ * The batch endpoint of the bidding desks. The logged in customer is the desk, it may only bid for the buyers assigned
+ * to it (BidDeskAuthorizer), every other bid of the batch is answered with 403
+ */
+@RestController
+public class BidDeskController {
+
+    @Autowired
+    LiveBidServicesV3 liveBidServices;
+
+    /*
+     * This method places the bids of a desk across many lots at once
+     * @param bidModels - the bids, each for the customer of its bid model, at most bid.desk.max-batch-size of them
+     * @return ResponseEntity<List<CommonResponseModel>> - one result per bid in the order of bidModels, 413 if the batch is too large
+     */
+    @PostMapping("${bid.desk.batch-path:/live-bids/desk/batch}")
+    public ResponseEntity<List<CommonResponseModel>> placeDeskBids(@RequestBody List<LiveBidModel> bidModels) {
+        return liveBidServices.initBatch(bidModels, false);
+    }
+}
@@ -0,0 +1,49 @@
+package cone.customer.api.auctionservice.controllers;
+
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.api.auctionservice.services.bidhandlingservices.BidContext;
+import cone.customer.api.auctionservice.services.bidhandlingservices.BidForwardingSigner;
+import cone.customer.api.auctionservice.services.bidhandlingservices.LiveBidServicesV3;
+import cone.customer.api.auctionservice.services.bidhandlingservices.TenantScope;
+import cone.customer.utils.models.CommonResponseModel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+/*
+ * The internal bid endpoint the HttpBidForwarder of another cluster node posts to. The bid is only placed if its
+ * forwarding token verifies, and it is placed for the tenant and bidder of the token, the request carries no user context
+ */
+@Slf4j
+@RestController
+public class InternalBidController {
+
+    @Autowired
+    LiveBidServicesV3 liveBidServices;
+
+    @Autowired
+    BidForwardingSigner bidForwardingSigner;
+
+    /*
+     * This method places a bid forwarded by another node on this node, deduplicated here when it carries a bid token
+     * @param token - the forwarding token issued by the forwarding node
+     * @param bidModel - the bid request model with customerId, stockId, amount etc
+     * @return ResponseEntity<CommonResponseModel> - the response of the bid, 401 if the token does not verify
+     */
+    @PostMapping("${bid.cluster.forward-path:/internal/live-bids}")
+    public ResponseEntity<CommonResponseModel> placeForwardedBid(@RequestHeader(value = BidForwardingSigner.TOKEN_HEADER, required = false) String token,
+                                                                 @RequestBody LiveBidModel bidModel) throws Exception {
+        BidForwardingSigner.ForwardedBid forwardedBid = bidForwardingSigner.verify(token, bidModel);
+        if (forwardedBid == null) {
+            log.warn("Forwarded bid on stock " + bidModel.getStockId() + " refused, its forwarding token does not verify");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new CommonResponseModel(401, "Invalid forwarding token"));
+        }
+        BidContext context = forwardedBid.getContext();
+        return TenantScope.callChecked(context.getTenantId(), () -> liveBidServices.initLocal(bidModel, context, forwardedBid.getBidToken()));
+    }
+}
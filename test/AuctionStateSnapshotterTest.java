@@ -0,0 +1,162 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.entity.Bid;
+import cone.customer.api.auctionservice.repository.HighestBidRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuctionStateSnapshotterTest {
+
+    private static final String TENANT = "TENANT_1";
+    private static final Long STOCK = 10L;
+
+    @TempDir
+    Path directory;
+
+    private AuctionStateSnapshotter written;
+    private AuctionStateSnapshotter restored;
+    private List<Bid> acceptedSinceSnapshot;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        written = snapshotter(AuctionStateCache.AuctionState.STARTED);
+        written.liveOrderBook.install(TENANT, STOCK, new HighestBidSnapshot(150, 2L, 2), true, false);
+        written.marginReservationEngine.install(TENANT, STOCK, 2L, 4500L, 5);
+        written.buyerExposureLedger.install(TENANT, 2L, today(), 300L);
+        ReflectionTestUtils.setField(written, "directoryPath", directory);
+        acceptedSinceSnapshot = Collections.emptyList();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (restored != null) {
+            restored.stop();
+        }
+    }
+
+    @Test
+    void restoresTheWrittenState() throws Exception {
+        written.write();
+        restored = restore(AuctionStateCache.AuctionState.STARTED);
+
+        HighestBidSnapshot highestBid = restored.liveOrderBook.peek(TENANT, STOCK);
+        assertEquals(150, highestBid.getAmount());
+        assertEquals(2L, highestBid.getCustomerId());
+        assertEquals(2, highestBid.getQuantity());
+        assertTrue(restored.liveOrderBook.isPersisted(TENANT, STOCK));
+        MarginReservationEngine.Reservation reservation = restored.marginReservationEngine.heldReservation(TENANT, STOCK);
+        assertEquals(2L, reservation.getCustomerId());
+        assertEquals(4500L, reservation.getCents());
+        assertEquals(5, restored.marginReservationEngine.cachedStockQuantity(TENANT, STOCK));
+        assertEquals(300L, restored.buyerExposureLedger.exposures().get(TENANT).get(2L).getTotal());
+    }
+
+    @Test
+    void catchesUpWithTheBidsAcceptedSinceTheSnapshot() throws Exception {
+        written.write();
+        Bid bid = new Bid();
+        bid.setStockId(STOCK);
+        bid.setCustomerId(3L);
+        bid.setAmount(170);
+        bid.setQuantity(1);
+        acceptedSinceSnapshot = Collections.singletonList(bid);
+        restored = restore(AuctionStateCache.AuctionState.STARTED);
+
+        HighestBidSnapshot highestBid = restored.liveOrderBook.peek(TENANT, STOCK);
+        assertEquals(170, highestBid.getAmount());
+        assertEquals(3L, highestBid.getCustomerId());
+        assertNull(restored.marginReservationEngine.heldReservation(TENANT, STOCK));
+        // the buyers of the moved lot are seeded from the database again
+        assertFalse(restored.buyerExposureLedger.exposures().containsKey(TENANT));
+    }
+
+    @Test
+    void leavesOutTheLotsClosedWhileDown() throws Exception {
+        written.write();
+        restored = restore(AuctionStateCache.AuctionState.NOT_RUNNING);
+
+        assertNull(restored.liveOrderBook.peek(TENANT, STOCK));
+        assertNull(restored.marginReservationEngine.heldReservation(TENANT, STOCK));
+    }
+
+    @Test
+    void ignoresACorruptSnapshot() throws Exception {
+        written.write();
+        Path snapshot = directory.resolve("auction-state.snapshot");
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length / 2] ^= 0x01;
+        Files.write(snapshot, bytes);
+        restored = restore(AuctionStateCache.AuctionState.STARTED);
+
+        assertNull(restored.liveOrderBook.peek(TENANT, STOCK));
+        assertTrue(restored.buyerExposureLedger.exposures().isEmpty());
+    }
+
+    private AuctionStateSnapshotter restore(AuctionStateCache.AuctionState state) throws Exception {
+        AuctionStateSnapshotter snapshotter = snapshotter(state);
+        ReflectionTestUtils.setField(snapshotter, "enabled", true);
+        ReflectionTestUtils.setField(snapshotter, "directory", directory.toString());
+        ReflectionTestUtils.setField(snapshotter, "intervalMs", 3600000L);
+        ReflectionTestUtils.setField(snapshotter, "maxAgeMs", 3600000L);
+        ReflectionTestUtils.setField(snapshotter, "catchUpSlackMs", 1000L);
+        snapshotter.start();
+        return snapshotter;
+    }
+
+    @SuppressWarnings("unchecked")
+    private AuctionStateSnapshotter snapshotter(AuctionStateCache.AuctionState state) throws Exception {
+        AuctionStateSnapshotter snapshotter = new AuctionStateSnapshotter();
+        snapshotter.liveOrderBook = new LiveOrderBook();
+        snapshotter.marginReservationEngine = new MarginReservationEngine();
+        snapshotter.buyerExposureLedger = new BuyerExposureLedger();
+
+        Map<String, Map<Long, AuctionStateCache.AuctionState>> runningStates = new HashMap<>();
+        runningStates.put(TENANT, Collections.singletonMap(STOCK, state));
+        snapshotter.auctionStateCache = mock(AuctionStateCache.class);
+        when(snapshotter.auctionStateCache.runningStates()).thenReturn(runningStates);
+        when(snapshotter.auctionStateCache.get(anyString(), anyLong())).thenReturn(state);
+
+        snapshotter.bidSequencer = mock(BidSequencer.class);
+        when(snapshotter.bidSequencer.execute(anyString(), anyLong(), any()))
+                .thenAnswer(invocation -> invocation.<BidSequencer.BidTask<?>>getArgument(2).run());
+        snapshotter.bidRouter = mock(BidRouter.class);
+        snapshotter.highestBidRepository = mock(HighestBidRepository.class);
+
+        TypedQuery<Bid> acceptedBids = mock(TypedQuery.class);
+        when(acceptedBids.setParameter(anyString(), any())).thenReturn(acceptedBids);
+        when(acceptedBids.getResultList()).thenAnswer(invocation -> acceptedSinceSnapshot);
+        snapshotter.entityManager = mock(EntityManager.class);
+        when(snapshotter.entityManager.createQuery(anyString(), eq(Bid.class))).thenReturn(acceptedBids);
+        return snapshotter;
+    }
+
+    private static long today() {
+        long now = System.currentTimeMillis();
+        return (now + TimeZone.getDefault().getOffset(now)) / TimeUnit.DAYS.toMillis(1);
+    }
+}
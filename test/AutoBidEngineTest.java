@@ -0,0 +1,136 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AutoBidEngineTest {
+
+    private static final String TENANT = "TENANT_1";
+    private static final Long STOCK = 10L;
+
+    private AutoBidEngine autoBidEngine;
+
+    @BeforeEach
+    void setUp() {
+        AtomicLong ids = new AtomicLong();
+        ProxyBidRegistrationRepository repository = mock(ProxyBidRegistrationRepository.class);
+        when(repository.save(any(ProxyBidRegistration.class))).thenAnswer(invocation -> {
+            ProxyBidRegistration registration = invocation.getArgument(0);
+            registration.setId(ids.incrementAndGet());
+            return registration;
+        });
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        autoBidEngine = new AutoBidEngine();
+        autoBidEngine.proxyBidRegistrationRepository = repository;
+        autoBidEngine.transactionTemplate = new TransactionTemplate(transactionManager);
+        ReflectionTestUtils.setField(autoBidEngine, "defaultIncrement", 1);
+    }
+
+    @Test
+    void holderProxyIsNotBidAgainstItself() {
+        // P2 holds the lot at 100 with a ceiling of 150, P1 registers a ceiling of 200
+        autoBidEngine.register(TENANT, STOCK, 2L, 150, null);
+        autoBidEngine.register(TENANT, STOCK, 1L, 200, null);
+
+        List<AutoBidEngine.ProxyBid> proxyBids = autoBidEngine.resolve(TENANT, STOCK, new HighestBidSnapshot(100, 2L, 1));
+
+        assertEquals(1, proxyBids.size());
+        assertProxyBid(proxyBids.get(0), 1L, 151);
+    }
+
+    @Test
+    void outbidProxyBidsItsCeilingBeforeTheWinner() {
+        autoBidEngine.register(TENANT, STOCK, 1L, 200, null);
+        autoBidEngine.register(TENANT, STOCK, 2L, 150, null);
+
+        List<AutoBidEngine.ProxyBid> proxyBids = autoBidEngine.resolve(TENANT, STOCK, new HighestBidSnapshot(100, 3L, 1));
+
+        assertEquals(2, proxyBids.size());
+        assertProxyBid(proxyBids.get(0), 2L, 150);
+        assertProxyBid(proxyBids.get(1), 1L, 151);
+    }
+
+    @Test
+    void holderWithStrongestProxyOnlyBidsWhenChallenged() {
+        autoBidEngine.register(TENANT, STOCK, 1L, 200, null);
+
+        assertTrue(autoBidEngine.resolve(TENANT, STOCK, new HighestBidSnapshot(100, 1L, 1)).isEmpty());
+
+        autoBidEngine.register(TENANT, STOCK, 2L, 150, null);
+        List<AutoBidEngine.ProxyBid> proxyBids = autoBidEngine.resolve(TENANT, STOCK, new HighestBidSnapshot(100, 1L, 1));
+
+        assertEquals(2, proxyBids.size());
+        assertProxyBid(proxyBids.get(0), 2L, 150);
+        assertProxyBid(proxyBids.get(1), 1L, 151);
+    }
+
+    @Test
+    void earliestRegistrationWinsATie() {
+        autoBidEngine.register(TENANT, STOCK, 1L, 200, null);
+        autoBidEngine.register(TENANT, STOCK, 2L, 200, null);
+
+        List<AutoBidEngine.ProxyBid> proxyBids = autoBidEngine.resolve(TENANT, STOCK, new HighestBidSnapshot(100, 3L, 1));
+
+        assertEquals(2, proxyBids.size());
+        assertProxyBid(proxyBids.get(0), 2L, 199);
+        assertProxyBid(proxyBids.get(1), 1L, 200);
+    }
+
+    @Test
+    void winnerBidsOneIncrementOverAManualBid() {
+        autoBidEngine.register(TENANT, STOCK, 1L, 200, 5);
+
+        List<AutoBidEngine.ProxyBid> proxyBids = autoBidEngine.resolve(TENANT, STOCK, new HighestBidSnapshot(120, 3L, 1));
+
+        assertEquals(1, proxyBids.size());
+        assertProxyBid(proxyBids.get(0), 1L, 125);
+    }
+
+    @Test
+    void proxiesThatCannotBeatThePriceAreDropped() {
+        autoBidEngine.register(TENANT, STOCK, 1L, 200, null);
+        autoBidEngine.register(TENANT, STOCK, 2L, 150, null);
+        autoBidEngine.resolve(TENANT, STOCK, new HighestBidSnapshot(100, 3L, 1));
+
+        // only the winner is left once it is cancelled, the proxy outbid at its ceiling was dropped by the resolve
+        autoBidEngine.cancel(TENANT, STOCK, 1L);
+        assertFalse(autoBidEngine.hasProxies(TENANT, STOCK));
+    }
+
+    @Test
+    void proxiesAreKeptPerTenant() {
+        autoBidEngine.register(TENANT, STOCK, 1L, 200, null);
+
+        assertTrue(autoBidEngine.resolve("TENANT_2", STOCK, new HighestBidSnapshot(100, 3L, 1)).isEmpty());
+        assertEquals(1, autoBidEngine.resolve(TENANT, STOCK, new HighestBidSnapshot(100, 3L, 1)).size());
+    }
+
+    @Test
+    void cancelledProxyNoLongerBids() {
+        autoBidEngine.register(TENANT, STOCK, 1L, 200, null);
+        autoBidEngine.cancel(TENANT, STOCK, 1L);
+
+        assertTrue(autoBidEngine.resolve(TENANT, STOCK, new HighestBidSnapshot(100, 3L, 1)).isEmpty());
+    }
+
+    private static void assertProxyBid(AutoBidEngine.ProxyBid proxyBid, Long customerId, Integer amount) {
+        assertEquals(customerId, proxyBid.getCustomerId());
+        assertEquals(amount, proxyBid.getAmount());
+    }
+}
@@ -0,0 +1,100 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BidForwardingSignerTest {
+
+    private BidForwardingSigner signer;
+
+    @BeforeEach
+    void setUp() {
+        signer = signer("cluster-secret");
+    }
+
+    @Test
+    void verifiedTokenCarriesTheSignedContext() throws Exception {
+        LiveBidModel bidModel = bid(150);
+        String token = signer.sign(BidContext.of("TENANT_1", 7L, true), bidModel, "bid-token-1");
+
+        BidForwardingSigner.ForwardedBid forwardedBid = signer.verify(token, bidModel);
+
+        assertNotNull(forwardedBid);
+        assertEquals("TENANT_1", forwardedBid.getContext().getTenantId());
+        assertEquals(7L, forwardedBid.getContext().getBidderId());
+        assertTrue(forwardedBid.getContext().isAutobid());
+        assertEquals("bid-token-1", forwardedBid.getBidToken());
+    }
+
+    @Test
+    void tokenIsOnlyValidForTheBidItWasIssuedFor() throws Exception {
+        String token = signer.sign(BidContext.of("TENANT_1", 7L, false), bid(150), null);
+
+        assertNull(signer.verify(token, bid(151)));
+    }
+
+    @Test
+    void forgedClaimsAreRejected() throws Exception {
+        LiveBidModel bidModel = bid(150);
+        String token = signer.sign(BidContext.of("TENANT_1", 7L, false), bidModel, null);
+        String otherPayload = signer.sign(BidContext.of("TENANT_2", 8L, false), bidModel, null).split("\\.")[0];
+
+        assertNull(signer.verify(otherPayload + token.substring(token.indexOf('.')), bidModel));
+    }
+
+    @Test
+    void tokenSignedWithAnotherSecretIsRejected() throws Exception {
+        LiveBidModel bidModel = bid(150);
+        String token = signer("other-secret").sign(BidContext.of("TENANT_1", 7L, false), bidModel, null);
+
+        assertNull(signer.verify(token, bidModel));
+    }
+
+    @Test
+    void expiredTokenIsRejected() throws Exception {
+        LiveBidModel bidModel = bid(150);
+        String token = signer.sign(BidContext.of("TENANT_1", 7L, false), bidModel, null);
+        ReflectionTestUtils.setField(signer, "maxSkewMs", -1L);
+
+        assertNull(signer.verify(token, bidModel));
+    }
+
+    @Test
+    void missingOrMalformedTokenIsRejected() {
+        assertNull(signer.verify(null, bid(150)));
+        assertNull(signer.verify("no-separator", bid(150)));
+        assertNull(signer.verify("not base64!.not base64!", bid(150)));
+    }
+
+    @Test
+    void clusterModeRequiresASecret() {
+        BidForwardingSigner unsigned = signer("");
+        ReflectionTestUtils.setField(unsigned, "clusterEnabled", true);
+
+        assertThrows(IllegalStateException.class, unsigned::start);
+    }
+
+    private static BidForwardingSigner signer(String secret) {
+        BidForwardingSigner signer = new BidForwardingSigner();
+        ReflectionTestUtils.setField(signer, "secret", secret);
+        ReflectionTestUtils.setField(signer, "maxSkewMs", 30000L);
+        return signer;
+    }
+
+    private static LiveBidModel bid(int amount) {
+        LiveBidModel bidModel = new LiveBidModel();
+        bidModel.setStockId(10L);
+        bidModel.setCustomerId(7L);
+        bidModel.setAmount(amount);
+        bidModel.setQuantity(1);
+        return bidModel;
+    }
+}
@@ -0,0 +1,202 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import cone.customer.api.auctionservice.entity.MvtLaBuyers;
+import cone.customer.api.auctionservice.entity.Stock;
+import cone.customer.api.auctionservice.model.LiveBidModel;
+import cone.customer.utils.models.CommonResponseModel;
+import cone.customer.utils.shared.Utils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/*
+ * The checks of validate answer in the order of the original validator: seller, buyer, buyer limit, margin, bid is
+ * higher, auction in progress
+ */
+class BidValidatorTest {
+
+    private static final String TENANT = "TENANT_1";
+    private static final Long STOCK = 10L;
+    private static final Long SELLER = 1L;
+    private static final Long BIDDER = 2L;
+
+    private BidValidator bidValidator;
+    private BidContext context;
+    private Stock stock;
+    private BidStageMetrics.BidTrace trace;
+
+    @BeforeEach
+    void setUp() {
+        bidValidator = new BidValidator();
+        bidValidator.bidAsyncServices = mock(BidAsyncServices.class);
+        bidValidator.bidSettingsCache = mock(BidSettingsCache.class);
+        bidValidator.liveOrderBook = mock(LiveOrderBook.class);
+        bidValidator.buyerExposureLedger = mock(BuyerExposureLedger.class);
+        bidValidator.auctionStateCache = mock(AuctionStateCache.class);
+        bidValidator.buyerProfileCache = mock(BuyerProfileCache.class);
+        bidValidator.marginReservationEngine = mock(MarginReservationEngine.class);
+
+        settings(false, false);
+        when(bidValidator.buyerProfileCache.buyer(TENANT, BIDDER)).thenReturn(Optional.of(buyer(1_000_000)));
+        when(bidValidator.auctionStateCache.get(TENANT, STOCK)).thenReturn(AuctionStateCache.AuctionState.STARTED);
+        when(bidValidator.liveOrderBook.get(TENANT, STOCK)).thenReturn(new HighestBidSnapshot(100, 3L, 1));
+        when(bidValidator.liveOrderBook.read(TENANT, STOCK)).thenReturn(new HighestBidSnapshot(100, 3L, 1));
+        when(bidValidator.marginReservationEngine.tryReserve(anyString(), anyLong(), anyLong(), anyInt(), any()))
+                .thenReturn(MarginReservationEngine.MarginCheck.RESERVED);
+
+        context = BidContext.of(TENANT, BIDDER, false);
+        stock = new Stock();
+        stock.setId(STOCK);
+        stock.setCustomerId(SELLER);
+        BidStageMetrics bidStageMetrics = new BidStageMetrics();
+        bidStageMetrics.meterRegistry = new SimpleMeterRegistry();
+        trace = bidStageMetrics.trace(TENANT);
+    }
+
+    @Test
+    void acceptsAHigherBidOnARunningLot() {
+        assertNull(validate(bid(150)));
+
+        verify(bidValidator.auctionStateCache).recordSeller(TENANT, STOCK, SELLER);
+        verifyNoInteractions(bidValidator.bidAsyncServices);
+    }
+
+    @Test
+    void sellerIsRefusedBeforeTheBuyerIsLookedUp() {
+        settings(true, false);
+        context = BidContext.of(TENANT, SELLER, false);
+
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, validate(bid(50)).getStatusCode());
+
+        verifyRejected(Utils.BID_TYPE.ER, "Seller of Stock");
+        verifyNoInteractions(bidValidator.buyerProfileCache);
+    }
+
+    @Test
+    void buyerLimitIsCheckedBeforeTheBidIsHigher() {
+        when(bidValidator.buyerProfileCache.buyer(TENANT, BIDDER)).thenReturn(Optional.of(buyer(10)));
+
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, validate(bid(50)).getStatusCode());
+
+        verifyRejected(Utils.BID_TYPE.OL, "Low Bid limit");
+        verifyNoInteractions(bidValidator.liveOrderBook);
+    }
+
+    @Test
+    void marginIsCheckedBeforeTheBidIsHigher() {
+        settings(false, true);
+        when(bidValidator.marginReservationEngine.tryReserve(anyString(), anyLong(), anyLong(), anyInt(), any()))
+                .thenReturn(new MarginReservationEngine.MarginCheck(false, true, 10.0, 20.0));
+
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, validate(bid(50)).getStatusCode());
+
+        verifyRejected(Utils.BID_TYPE.ER, "Low Margin");
+        verifyNoInteractions(bidValidator.liveOrderBook);
+    }
+
+    @Test
+    void lowBidOnAClosedLotIsAnsweredLowBid() {
+        settings(false, true);
+        when(bidValidator.auctionStateCache.get(TENANT, STOCK)).thenReturn(AuctionStateCache.AuctionState.NOT_RUNNING);
+
+        assertEquals(HttpStatus.OK, validate(bid(50)).getStatusCode());
+
+        verifyRejected(Utils.BID_TYPE.LB, "Low Bid");
+        // a lot that is not running is read without being loaded into the order book
+        verify(bidValidator.liveOrderBook, never()).get(TENANT, STOCK);
+        verify(bidValidator.marginReservationEngine).abort(TENANT, STOCK);
+    }
+
+    @Test
+    void higherBidOnAClosedLotIsRefusedAndGivesTheMarginBack() {
+        settings(false, true);
+        when(bidValidator.auctionStateCache.get(TENANT, STOCK)).thenReturn(AuctionStateCache.AuctionState.NOT_RUNNING);
+
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, validate(bid(150)).getStatusCode());
+
+        verifyRejected(Utils.BID_TYPE.ER, "Auction Ended");
+        verify(bidValidator.marginReservationEngine).abort(TENANT, STOCK);
+        verify(bidValidator.auctionStateCache, never()).recordSeller(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    void rejectLosingBidLeavesMarginTenantsToValidate() {
+        settings(false, true);
+        when(bidValidator.auctionStateCache.runningSeller(TENANT, STOCK)).thenReturn(SELLER);
+        when(bidValidator.liveOrderBook.peek(TENANT, STOCK)).thenReturn(new HighestBidSnapshot(100, 3L, 1));
+
+        assertNull(bidValidator.rejectLosingBid(bid(50), context, trace));
+
+        verifyNoInteractions(bidValidator.bidAsyncServices);
+    }
+
+    @Test
+    void rejectLosingBidAnswersLowBidFromMemory() {
+        when(bidValidator.auctionStateCache.runningSeller(TENANT, STOCK)).thenReturn(SELLER);
+        when(bidValidator.liveOrderBook.peek(TENANT, STOCK)).thenReturn(new HighestBidSnapshot(100, 3L, 1));
+
+        assertEquals(HttpStatus.OK, bidValidator.rejectLosingBid(bid(50), context, trace).getStatusCode());
+
+        verifyRejected(Utils.BID_TYPE.LB, "Low Bid");
+        verify(bidValidator.liveOrderBook, never()).get(anyString(), anyLong());
+    }
+
+    private ResponseEntity<CommonResponseModel> validate(LiveBidModel bidModel) {
+        return bidValidator.validate(true, bidModel, stock, context, trace);
+    }
+
+    private void verifyRejected(Utils.BID_TYPE type, String reason) {
+        verify(bidValidator.bidAsyncServices).insertRejectBid(any(LiveBidModel.class), eq(TENANT), eq(type), eq(reason));
+    }
+
+    private void settings(boolean sellerBiddingBlocked, boolean marginEnabled) {
+        when(bidValidator.bidSettingsCache.get(TENANT))
+                .thenReturn(new BidSettingsCache.Snapshot(sellerBiddingBlocked, marginEnabled, 10.0, System.currentTimeMillis()));
+    }
+
+    /*
+     * A buyer whose bid limit is the given amount, whatever the numeric type of the limit
+     */
+    private static MvtLaBuyers buyer(long bidMaxAmount) {
+        Answer<Object> limit = invocation -> {
+            Class<?> type = invocation.getMethod().getReturnType();
+            if (type == Integer.class || type == int.class) {
+                return (int) bidMaxAmount;
+            } else if (type == Long.class || type == long.class) {
+                return bidMaxAmount;
+            } else if (type == Double.class || type == double.class) {
+                return (double) bidMaxAmount;
+            }
+            return null;
+        };
+        return mock(MvtLaBuyers.class, withSettings().defaultAnswer(limit));
+    }
+
+    private static LiveBidModel bid(int amount) {
+        LiveBidModel bidModel = new LiveBidModel();
+        bidModel.setStockId(STOCK);
+        bidModel.setCustomerId(BIDDER);
+        bidModel.setAmount(amount);
+        bidModel.setQuantity(1);
+        return bidModel;
+    }
+}
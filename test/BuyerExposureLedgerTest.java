@@ -0,0 +1,143 @@
+package cone.customer.api.auctionservice.services.bidhandlingservices;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BuyerExposureLedgerTest {
+
+    private static final String TENANT = "TENANT_1";
+
+    private BuyerExposureLedger ledger;
+    private TypedQuery<Number> dailyTotal;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        dailyTotal = mock(TypedQuery.class);
+        when(dailyTotal.setParameter(anyString(), any())).thenReturn(dailyTotal);
+        when(dailyTotal.getSingleResult()).thenReturn(1000L);
+        EntityManager entityManager = mock(EntityManager.class);
+        when(entityManager.createQuery(anyString(), eq(Number.class))).thenReturn(dailyTotal);
+
+        ledger = new BuyerExposureLedger();
+        ledger.entityManager = entityManager;
+        ReflectionTestUtils.setField(ledger, "reconcileIntervalMs", 60000L);
+    }
+
+    @Test
+    void exposureIsSeededFromTheDatabaseOnce() {
+        assertEquals(1000, ledger.exposure(TENANT, 1L));
+        assertEquals(1000, ledger.exposure(TENANT, 1L));
+
+        verify(dailyTotal, times(1)).getSingleResult();
+    }
+
+    @Test
+    void transferCreditsTheOutbidBuyerAndDebitsTheNewHolder() {
+        ledger.exposure(TENANT, 1L);
+
+        ledger.transfer(TENANT, new HighestBidSnapshot(100, 1L, 2), new HighestBidSnapshot(150, 2L, 2));
+
+        assertEquals(800, ledger.exposure(TENANT, 1L));
+        assertEquals(1300, ledger.exposure(TENANT, 2L));
+    }
+
+    @Test
+    void untrackedOutbidBuyerIsNotSeeded() {
+        ledger.transfer(TENANT, new HighestBidSnapshot(100, 1L, 1), new HighestBidSnapshot(150, 2L, 1));
+
+        assertFalse(ledger.exposures().get(TENANT).containsKey(1L));
+    }
+
+    @Test
+    void exposureNeverGoesBelowZero() {
+        when(dailyTotal.getSingleResult()).thenReturn(0L);
+        ledger.exposure(TENANT, 1L);
+
+        ledger.transfer(TENANT, new HighestBidSnapshot(100, 1L, 1), HighestBidSnapshot.EMPTY);
+
+        assertEquals(0, ledger.exposure(TENANT, 1L));
+    }
+
+    @Test
+    void exposuresAreKeptPerTenant() {
+        ledger.exposure(TENANT, 1L);
+
+        ledger.transfer("TENANT_2", HighestBidSnapshot.EMPTY, new HighestBidSnapshot(100, 1L, 1));
+
+        assertEquals(1000, ledger.exposure(TENANT, 1L));
+        assertEquals(1100, ledger.exposure("TENANT_2", 1L));
+    }
+
+    @Test
+    void reconcileRereadsStableTotals() {
+        ReflectionTestUtils.setField(ledger, "reconcileIntervalMs", -1L);
+        ledger.exposure(TENANT, 1L);
+        when(dailyTotal.getSingleResult()).thenReturn(500L);
+
+        ledger.reconcile();
+
+        assertEquals(500, ledger.exposure(TENANT, 1L));
+    }
+
+    @Test
+    void reconcileLeavesRecentlyMovedTotals() {
+        ledger.transfer(TENANT, HighestBidSnapshot.EMPTY, new HighestBidSnapshot(100, 1L, 1));
+        when(dailyTotal.getSingleResult()).thenReturn(500L);
+
+        ledger.reconcile();
+
+        assertEquals(1100, ledger.exposure(TENANT, 1L));
+    }
+
+    @Test
+    void concurrentTransfersKeepTheTotals() throws Exception {
+        when(dailyTotal.getSingleResult()).thenReturn(1_000_000L);
+        ledger.exposure(TENANT, 1L);
+        ledger.exposure(TENANT, 2L);
+        HighestBidSnapshot heldByFirst = new HighestBidSnapshot(10, 1L, 1);
+        HighestBidSnapshot heldBySecond = new HighestBidSnapshot(10, 2L, 1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                tasks.add(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        ledger.transfer(TENANT, heldByFirst, heldBySecond);
+                        ledger.transfer(TENANT, heldBySecond, heldByFirst);
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1_000_000, ledger.exposure(TENANT, 1L));
+        assertEquals(1_000_000, ledger.exposure(TENANT, 2L));
+    }
+}